@@ -0,0 +1,275 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: BatchValidator.java
+ *
+ * Driver that checks many MyPL files in one run (e.g., java
+ * BatchValidator src 'tests/**.mypl'), instead of starting a JVM per
+ * file with HW3. Each argument is a file, a directory (whose .mypl
+ * files are checked, recursively), or a glob pattern. Every file is
+ * lexed and parsed in diagnostics mode, so all of its errors are
+ * reported, by a Lexer and Parser taken from a ParserPool.
+ *
+ * Files are checked concurrently on virtual threads when the JVM has
+ * them (Java 21 and later, looked up by reflection so the driver still
+ * compiles and runs on older JVMs), and otherwise on a pool with one
+ * thread per core. At most a fixed number of files are in flight at
+ * once, so memory use does not grow with the number of files. The
+ * results are kept by the file's position in the sorted list of files,
+ * so the summary is in the same order no matter which file finished
+ * first.
+ */
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+
+public class BatchValidator {
+
+  // files smaller than this are read rather than memory mapped
+  private static final int MAP_THRESHOLD = 64 * 1024;
+  // size limit of the parse cache (-c)
+  private static final long CACHE_BYTES = 256L * 1024 * 1024;
+  // lexers and parsers reused across files
+  private static final ParserPool POOL = new ParserPool();
+
+  /**
+   * The result of checking one file.
+   */
+  public static class Result {
+    public final Path file;
+    public final List<MyPLException> diagnostics = new ArrayList<>();
+    public String failure;     // why the file could not be read or checked (or null)
+
+    public Result(Path file) {
+      this.file = file;
+    }
+
+    public boolean ok() {
+      return failure == null && diagnostics.isEmpty();
+    }
+  }
+
+  public static void main(String[] args) {
+    int inFlight = 4 * Runtime.getRuntime().availableProcessors();
+    String cacheDirectory = null;
+    List<String> inputs = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-j") && i + 1 < args.length)
+        inFlight = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-c") && i + 1 < args.length)
+        cacheDirectory = args[++i];
+      else
+        inputs.add(args[i]);
+    }
+    if (inputs.isEmpty()) {
+      System.out.println("Usage: java BatchValidator [-j files-in-flight] "
+                         + "[-c cache-directory] (file | directory | glob)...");
+      System.exit(1);
+    }
+    try {
+      long start = System.nanoTime();
+      ParseCache cache = cacheDirectory == null ? null
+        : new ParseCache(Paths.get(cacheDirectory), CACHE_BYTES);
+      List<Result> results = validate(files(inputs), inFlight, cache);
+      long millis = (System.nanoTime() - start) / 1000000;
+      System.exit(report(results, millis) ? 0 : 1);
+    } catch (IOException e) {
+      System.out.println("Unable to list files or open the cache: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Returns the files the given arguments (files, directories, and glob
+   * patterns) name, sorted and without duplicates.
+   */
+  public static List<Path> files(List<String> inputs) throws IOException {
+    TreeSet<Path> files = new TreeSet<>();
+    for (String input : inputs) {
+      int glob = firstGlobCharacter(input);
+      if (glob >= 0) {
+        int slash = input.lastIndexOf('/', glob);
+        Path base = Paths.get(slash < 0 ? "" : input.substring(0, slash + 1));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + input);
+        addFiles(base, matcher::matches, files);
+      } else {
+        Path path = Paths.get(input);
+        if (Files.isDirectory(path))
+          addFiles(path, p -> p.toString().endsWith(".mypl"), files);
+        else
+          files.add(path);
+      }
+    }
+    return new ArrayList<>(files);
+  }
+
+  /**
+   * Checks the given files, with at most inFlight of them being checked
+   * at once, and returns their results in the same order. Results are
+   * looked up in and added to the given cache (if not null). A file
+   * whose check throws (or is interrupted) gets a failure instead.
+   */
+  public static List<Result> validate(List<Path> files, int inFlight, ParseCache cache) {
+    Result[] results = new Result[files.size()];
+    Semaphore permits = new Semaphore(Math.max(1, inFlight));
+    ExecutorService executor = executor();
+    try {
+      for (int i = 0; i < results.length; i++) {
+        int index = i;
+        permits.acquireUninterruptibly();
+        executor.execute(() -> {
+            try {
+              results[index] = validate(files.get(index), cache);
+            } catch (RuntimeException e) {
+              results[index] = failed(files.get(index), "Unable to check file '"
+                                      + files.get(index) + "': " + e);
+            } finally {
+              permits.release();
+            }
+        });
+      }
+    } finally {
+      executor.shutdown();
+    }
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.MINUTES))
+        ;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    List<Result> list = new ArrayList<>();
+    for (int i = 0; i < results.length; i++)
+      list.add(results[i] != null ? results[i]
+               : failed(files.get(i), "File '" + files.get(i) + "' was not checked"));
+    return list;
+  }
+
+  /**
+   * Lexes and parses one file, recording all of its errors (or takes
+   * its result from the given cache, if not null).
+   */
+  public static Result validate(Path file, ParseCache cache) {
+    try {
+      SourceBuffer source = source(file);
+      if (cache == null)
+        return validate(file, source);
+      Result result = new Result(file);
+      result.diagnostics.addAll(cache.parse(source, false).diagnostics);
+      return result;
+    } catch (IOException e) {
+      return failed(file, "Unable to open file '" + file + "'");
+    }
+  }
+
+  /**
+   * Lexes and parses the given source (named file in the result),
+   * recording all of its errors.
+   */
+  public static Result validate(Path file, SourceBuffer source) {
+    Result result = new Result(file);
+    result.diagnostics.addAll(POOL.validate(source));
+    return result;
+  }
+
+  /**
+   * Prints each file's result (and errors) in order followed by the
+   * totals, and returns whether every file was ok.
+   */
+  public static boolean report(List<Result> results, long millis) {
+    int failed = 0;
+    int errors = 0;
+    StringBuilder out = new StringBuilder();
+    for (Result result : results) {
+      format(result, out);
+      if (!result.ok())
+        failed++;
+      errors += result.diagnostics.size();
+    }
+    out.append(results.size()).append(" files, ").append(results.size() - failed)
+      .append(" ok, ").append(failed).append(" failed (").append(errors)
+      .append(" errors) in ").append(millis).append(" ms");
+    System.out.println(out);
+    return failed == 0;
+  }
+
+  /**
+   * Adds the lines reporting a file's result to the given text: the
+   * file and its status, and then each error indented.
+   */
+  public static void format(Result result, StringBuilder out) {
+    out.append(result.file).append(": ");
+    if (result.failure != null)
+      out.append(result.failure).append('\n');
+    else if (result.diagnostics.isEmpty())
+      out.append("ok\n");
+    else
+      out.append(result.diagnostics.size())
+        .append(result.diagnostics.size() == 1 ? " error\n" : " errors\n");
+    for (MyPLException e : result.diagnostics)
+      out.append("  ").append(e).append('\n');
+  }
+
+
+  /* Helper Functions */
+
+  // the result of a file that could not be read or checked
+  private static Result failed(Path file, String failure) {
+    Result result = new Result(file);
+    result.failure = failure;
+    return result;
+  }
+
+  // a virtual thread per task if the JVM has them, and otherwise a
+  // thread per core
+  private static ExecutorService executor() {
+    try {
+      Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) method.invoke(null);
+    } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+      return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    }
+  }
+
+  // the file's bytes: read if the file is small (mapping a small file
+  // costs more than reading it), memory mapped otherwise (also used by
+  // ParseDaemon)
+  static SourceBuffer source(Path file) throws IOException {
+    if (Files.size(file) < MAP_THRESHOLD)
+      return new SourceBuffer(ByteBuffer.wrap(Files.readAllBytes(file)));
+    return SourceBuffer.map(file);
+  }
+
+  // adds the regular files under base that the filter accepts
+  private static void addFiles(Path base, Predicate<Path> filter, TreeSet<Path> files)
+    throws IOException
+  {
+    try (Stream<Path> paths = Files.walk(base)) {
+      paths.filter(path -> Files.isRegularFile(path) && filter.test(path))
+        .forEach(files::add);
+    }
+  }
+
+  // the index of the first *, ?, [, or { in a pattern, or -1
+  private static int firstGlobCharacter(String input) {
+    for (int i = 0; i < input.length(); i++)
+      if ("*?[{".indexOf(input.charAt(i)) >= 0)
+        return i;
+    return -1;
+  }
+}
@@ -0,0 +1,223 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: Expr.java
+ *
+ * Typed, read-only view of the expressions of a SyntaxTree. Each kind
+ * of expression is a nested subclass; a view is only a tree and a
+ * node index, and its children are viewed on demand, so the tree
+ * itself holds no Expr objects. The grammar allows an expression to
+ * be empty in some places (e.g., after an operator or NOT), so an
+ * operand can be null. toString prints the tree in prefix form, e.g.,
+ * (+ 1 (* x.y 2)).
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+public abstract class Expr {
+
+  /**
+   * Returns the view of the given expression node of the tree, or null
+   * for an EMPTY node.
+   */
+  public static Expr of(SyntaxTree tree, int node) {
+    switch (tree.kind(node)) {
+      case SyntaxTree.BINARY: return new Binary(tree, node);
+      case SyntaxTree.UNARY: return new Unary(tree, node);
+      case SyntaxTree.VALUE: return new Value(tree, node);
+      case SyntaxTree.NEW: return new New(tree, node);
+      case SyntaxTree.PATH: return new Path(tree, node);
+      case SyntaxTree.CALL: return new Call(tree, node);
+      case SyntaxTree.EMPTY: return null;
+      default:
+        throw new IllegalArgumentException("node " + node + " is not an expression");
+    }
+  }
+
+  private Expr(SyntaxTree tree, int node) {
+    this.tree = tree;
+    this.node = node;
+  }
+
+  /**
+   * Returns the tree the expression is in.
+   */
+  public SyntaxTree tree() {
+    return tree;
+  }
+
+  /**
+   * Returns the index of the expression's node in its tree.
+   */
+  public int node() {
+    return node;
+  }
+
+
+  /**
+   * A binary operation: <expr> <operator> <expr>.
+   */
+  public static final class Binary extends Expr {
+    private Binary(SyntaxTree tree, int node) {
+      super(tree, node);
+    }
+
+    public TokenType op() {
+      return tree.tokenType(node);
+    }
+
+    public Expr left() {
+      return of(tree, tree.firstChild(node));
+    }
+
+    public Expr right() {
+      return of(tree, tree.nextSibling(tree.firstChild(node)));
+    }
+
+    @Override
+    public String toString() {
+      return "(" + spelling(op()) + " " + left() + " " + right() + ")";
+    }
+  }
+
+
+  /**
+   * A prefix operation: NOT <expr> or NEG <expr>.
+   */
+  public static final class Unary extends Expr {
+    private Unary(SyntaxTree tree, int node) {
+      super(tree, node);
+    }
+
+    public TokenType op() {
+      return tree.tokenType(node);
+    }
+
+    public Expr operand() {
+      return of(tree, tree.firstChild(node));
+    }
+
+    @Override
+    public String toString() {
+      return "(" + spelling(op()) + " " + operand() + ")";
+    }
+  }
+
+
+  /**
+   * A literal value or NIL.
+   */
+  public static final class Value extends Expr {
+    private Value(SyntaxTree tree, int node) {
+      super(tree, node);
+    }
+
+    public Token token() {
+      return tree.tokenOf(node);
+    }
+
+    @Override
+    public String toString() {
+      return token().lexeme();
+    }
+  }
+
+
+  /**
+   * Creation of a new value of a type: NEW ID.
+   */
+  public static final class New extends Expr {
+    private New(SyntaxTree tree, int node) {
+      super(tree, node);
+    }
+
+    public Token type() {
+      return tree.tokenOf(node);
+    }
+
+    @Override
+    public String toString() {
+      return "(new " + type().lexeme() + ")";
+    }
+  }
+
+
+  /**
+   * A variable or field path: ID ( DOT ID )*.
+   */
+  public static final class Path extends Expr {
+    private Path(SyntaxTree tree, int node) {
+      super(tree, node);
+    }
+
+    public List<Token> ids() {
+      List<Token> ids = new ArrayList<>();
+      for (int id = tree.firstChild(node); id >= 0; id = tree.nextSibling(id))
+        ids.add(tree.tokenOf(id));
+      return ids;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder s = new StringBuilder();
+      for (Token id : ids())
+        s.append(s.length() > 0 ? "." : "").append(id.lexeme());
+      return s.toString();
+    }
+  }
+
+
+  /**
+   * A function call: ID LPAREN <exprlist> RPAREN.
+   */
+  public static final class Call extends Expr {
+    private Call(SyntaxTree tree, int node) {
+      super(tree, node);
+    }
+
+    public Token name() {
+      return tree.tokenOf(node);
+    }
+
+    // the arguments (which may be null)
+    public List<Expr> args() {
+      List<Expr> args = new ArrayList<>();
+      for (int arg = tree.firstChild(node); arg >= 0; arg = tree.nextSibling(arg))
+        args.add(of(tree, arg));
+      return args;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder s = new StringBuilder("(call " + name().lexeme());
+      for (Expr arg : args())
+        s.append(' ').append(arg);
+      return s.append(')').toString();
+    }
+  }
+
+
+  // the spelling of an operator for toString
+  private static String spelling(TokenType op) {
+    switch (op) {
+      case PLUS: return "+";
+      case MINUS: return "-";
+      case MULTIPLY: return "*";
+      case DIVIDE: return "/";
+      case MODULO: return "%";
+      case EQUAL: return "=";
+      case NOT_EQUAL: return "!=";
+      case LESS_THAN: return "<";
+      case LESS_THAN_EQUAL: return "<=";
+      case GREATER_THAN: return ">";
+      case GREATER_THAN_EQUAL: return ">=";
+      default: return op.name().toLowerCase();
+    }
+  }
+
+
+  protected final SyntaxTree tree;  // the tree holding the expression
+  protected final int node;         // the expression's node in the tree
+}
@@ -8,30 +8,28 @@
  * line) or over a given input file (e.g., java HW3 p1.mypl).
  */
 
-import java.io.InputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 
 public class HW3 {
 
   public static void main(String[] args) {
     try {
-      // determine if file or standard in
-      InputStream istream = System.in;
+      // create the lexer over the (memory mapped) file or standard in
+      Lexer lexer;
       if (args.length == 1) {
-        istream = new FileInputStream(new File(args[0]));
+        lexer = new Lexer(Paths.get(args[0]));
+      } else {
+        lexer = new Lexer(System.in);
       }
-      // create the lexer
-      Lexer lexer = new Lexer(istream);
       // create the parser
       Parser parser = new Parser(lexer);
       parser.parse();
     } catch (MyPLException e) {
       System.out.println(e);
       System.exit(1);
-    } catch (FileNotFoundException e) {
+    } catch (IOException e) {
       System.out.println("Unable to open file '" + args[0] + "'");
       System.exit(1);
     }
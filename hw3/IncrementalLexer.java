@@ -0,0 +1,153 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: IncrementalLexer.java
+ *
+ * Re-lexes a source after a text edit by reusing the tokens of the
+ * previous version. Lexing restarts at the last token that starts
+ * before the line holding the edit, and stops as soon as a new token
+ * starts (past the edit) at the same place and column as an old token:
+ * from there on the lexer would see the same characters in the same
+ * state, so the remaining old tokens are reused with their offsets and
+ * lines shifted.
+ *
+ * The source and the tokens are edited in place: the source's bytes
+ * and the token arrays are gap buffers (see SourceBuffer.splice and
+ * TokenBuffer.splice), and the shift of the tokens after the edit is
+ * kept once for all of them rather than applied to each. So an edit
+ * takes time proportional to its size (and its distance from the
+ * previous edit) rather than to the size of the file.
+ */
+
+import java.nio.charset.StandardCharsets;
+
+
+public class IncrementalLexer {
+
+  private TokenBuffer tokens;
+  private TokenBuffer relexed;     // the new tokens of the last edit
+  private Lexer lexer;
+  private int from;                // first token the last edit relexed
+  private int removed;             // old tokens it replaced
+  private int inserted;            // new tokens it replaced them with
+
+  /**
+   * Create an incremental lexer that edits the given (complete) tokens
+   * and their source in place.
+   */
+  public IncrementalLexer(TokenBuffer tokens) {
+    this.tokens = tokens;
+    SourceBuffer source = tokens.source();
+    relexed = new TokenBuffer(source, tokens.symbolTable(), 64);
+    lexer = new Lexer(source, 0, source.length(), 1, 0);
+    lexer.setSymbolTable(tokens.symbolTable());
+  }
+
+  /**
+   * Replaces the removed bytes starting at the given byte offset with
+   * the given text, and updates the tokens. On a lexer error, throws
+   * it (as a MyPLException) and keeps the source and tokens as they
+   * were.
+   */
+  public void edit(int offset, int removed, String inserted) throws MyPLException {
+    SourceBuffer source = tokens.source();
+    byte[] bytes = inserted.getBytes(StandardCharsets.UTF_8);
+    byte[] old = source.bytes(offset, offset + removed);
+    source.splice(offset, removed, bytes);
+    try {
+      relex(offset, bytes.length, bytes.length - removed);
+    } catch (MyPLException e) {
+      source.splice(offset, bytes.length, old);
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the tokens (of the current version).
+   */
+  public TokenBuffer tokens() {
+    return tokens;
+  }
+
+  // the first token the last edit relexed
+  public int from() {
+    return from;
+  }
+
+  // the number of old tokens the last edit replaced (from from on)
+  public int removed() {
+    return removed;
+  }
+
+  // the number of new tokens the last edit replaced them with
+  public int inserted() {
+    return inserted;
+  }
+
+
+  /* Helper Functions */
+
+  // lexes the edited source (in which the edit at offset inserted the
+  // given number of bytes, changing its length by shift) until the new
+  // tokens line up with the old ones, and splices the new tokens in
+  private void relex(int offset, int length, int shift) throws MyPLException {
+    SourceBuffer source = tokens.source();
+    int editEnd = offset + length;             // end of the edit in the new source
+
+    // restart at the last token starting before the edited line, which
+    // is before any token the edit could change
+    int lineStart = offset;
+    while (lineStart > 0 && source.byteAt(lineStart - 1) != '\n')
+      lineStart--;
+    int restart = lastStartBefore(lineStart);
+
+    relexed.reset(source, tokens.symbolTable());
+    if (restart >= 0)
+      lexer.reset(source, tokens.start(restart), source.length(),
+                  tokens.line(restart), tokens.column(restart));
+    else
+      lexer.reset(source, 0, source.length(), 1, 0);  // no token before the edited line
+    restart = Math.max(restart, 0);
+    int old = restart;         // first old token that may still line up
+    int end = tokens.size();   // first old token kept
+    int count = -1;            // new tokens replacing the old ones before it
+    int lineDelta = 0;
+    while (lexer.nextTokenInto(relexed) != TokenType.EOS) {
+      int last = relexed.size() - 1;
+      int start = relexed.start(last);
+      if (start < editEnd)
+        continue;
+      // look for an old token at the same place
+      while (old < tokens.size() && tokens.start(old) + shift < start)
+        old++;
+      if (old < tokens.size() && tokens.start(old) + shift == start
+          && tokens.column(old) == relexed.column(last)) {
+        lineDelta = relexed.line(last) - tokens.line(old);
+        end = old;
+        count = last;
+        break;
+      }
+    }
+    if (count < 0)
+      count = relexed.size();  // lexed through EOS
+    from = restart;
+    removed = end - restart;
+    inserted = count;
+    tokens.splice(restart, removed, relexed, 0, count, shift, lineDelta);
+  }
+
+  // the index of the last token starting before the given offset, or
+  // -1 if there is none
+  private int lastStartBefore(int offset) {
+    int low = 0;
+    int high = tokens.size() - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (tokens.start(middle) < offset)
+        low = middle + 1;
+      else
+        high = middle - 1;
+    }
+    return high;
+  }
+}
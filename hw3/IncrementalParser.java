@@ -0,0 +1,410 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: IncrementalParser.java
+ *
+ * Keeps the syntax tree of a source that is being edited (e.g., in an
+ * editor), reparsing only the top-level declarations and statements an
+ * edit touches. The program is split into units, one per top-level
+ * statement, where the parser itself found them (see
+ * TopLevelListener): at the start of a unit the parser is between
+ * top-level statements, so the rest of the parse only depends on the
+ * tokens from there on. After an edit is re-lexed (see
+ * IncrementalLexer), the parser starts again at the last unit starting
+ * before the edited tokens, and stops at the first unit start after
+ * them that (shifted) is where a unit of the previous version started:
+ * from there on, the tokens have the same types and the parser is in
+ * the same state as before, so the previous units are kept. The units
+ * parsed are spliced into the tree in place of the old ones (see
+ * SyntaxTree.splice), which shifts the tokens of the nodes after them.
+ * Since the parser only looks at the types of the tokens, a kept node
+ * reads the new text, symbol, and value of its token from the new
+ * buffer.
+ *
+ * An edit that leaves a statement unfinished (e.g., "var x :=", or a
+ * FUN without its END yet) only reparses the units up to where the
+ * parser recovers from the error at the top level, so editing a
+ * program with errors costs the same as editing one without.
+ *
+ * Errors are recorded (as in diagnostics mode) rather than thrown, and
+ * the tree and errors are the same as parsing the whole source again
+ * with a single Parser would give. Each unit keeps its own errors, by
+ * token (from its first token), so a kept error moves with its unit,
+ * and the messages (with their lines and columns) are only made when
+ * diagnostics is called. The tokens, the tree, and the table of units
+ * are all kept with a gap at the place of the last edit, so an edit
+ * takes time proportional to the units it parses (and its distance
+ * from the previous edit) rather than to the size of the source.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+public class IncrementalParser {
+
+  private TokenBuffer tokens;
+  private IncrementalLexer lexer;                 // edits the tokens in place
+  private SyntaxTree tree = new SyntaxTree();     // edited in place
+  private SyntaxTree scratch = new SyntaxTree();  // tree of the units reparsed
+  private Parser parser;                          // reset for each edit
+  private List<MyPLException> errors = new ArrayList<>();  // errors of the units reparsed
+  private List<MyPLException> diagnostics;        // made when asked for (if not null)
+  private int errorCount;                         // errors of all of the units
+  private int reparsed;                           // units the last parse parsed
+
+  // the units of the tree, in parallel arrays with a gap at the place
+  // of the last edit (as in TokenBuffer): the first token and node of
+  // the units after the gap are stored less tokenShift and nodeShift.
+  // The entry after the last unit holds the EOS token and the size of
+  // the tree.
+  private int units;
+  private int[] unitTokens = new int[16];       // first token of each unit
+  private int[] unitNodes = new int[16];        // first node of each unit
+  private int[] firstStatements = new int[16];  // its first top-level statement
+                                                // (from its first node), or -1
+  private int[] lastStatements = new int[16];   // its last one, or -1
+  private UnitErrors[] unitErrors = new UnitErrors[16];  // its errors, or null
+  private int gap;
+  private int gapLength;
+  private int tokenShift;
+  private int nodeShift;
+
+  // the units parsed by the current edit (with their first nodes in
+  // scratch until they are spliced into the tree)
+  private int[] newTokens = new int[16];
+  private int[] newNodes = new int[16];
+  private int[] newFirsts = new int[16];
+  private int[] newLasts = new int[16];
+  private UnitErrors[] newErrors = new UnitErrors[16];
+  private int count;
+
+  // where the current edit stops reparsing: the first unit start at or
+  // after suffixStart where (shifted) a previous unit started, which is
+  // searched for from the previous unit old on
+  private int suffixStart;
+  private int shift;
+  private int old;
+  private int to;
+
+  /**
+   * Create an incremental parser over the given (complete) tokens, and
+   * parse them. Edits change the tokens (and their source) in place.
+   */
+  public IncrementalParser(TokenBuffer tokens) throws MyPLException {
+    this.tokens = tokens;
+    lexer = new IncrementalLexer(tokens);
+    parser = new Parser(tokens);
+    parser.setDiagnostics(errors);
+    parser.setTopLevelListener(this::atStatement);
+    tree.reset(tokens);
+    tree.setRoot(tree.add(SyntaxTree.PROGRAM, -1));
+    // no units yet: just the entry after them, at the end of the gap
+    gapLength = unitTokens.length - 1;
+    unitTokens[gapLength] = tokens.size() - 1;
+    unitNodes[gapLength] = tree.size();
+    update(0, tokens.size(), 0);
+  }
+
+  /**
+   * Replaces the removed bytes starting at the given byte offset with
+   * the given text, and updates the tokens, tree, and errors. On a
+   * lexer error, throws it (as a MyPLException) and keeps the previous
+   * version.
+   */
+  public void edit(int offset, int removed, String inserted) throws MyPLException {
+    lexer.edit(offset, removed, inserted);
+    // the tokens before the relexed ones, and after them (shifted), are
+    // the same as before
+    int prefix = lexer.from();
+    update(prefix, prefix + lexer.inserted(), lexer.inserted() - lexer.removed());
+  }
+
+  /**
+   * Returns the tokens of the current version.
+   */
+  public TokenBuffer tokens() {
+    return tokens;
+  }
+
+  /**
+   * Returns the syntax tree of the current version, which the next edit
+   * changes in place.
+   */
+  public SyntaxTree tree() {
+    return tree;
+  }
+
+  /**
+   * Returns the errors found in the current version, in order. The
+   * (unmodifiable) list is a snapshot of this version: it is made from
+   * the errors the units keep the first time it is asked for after an
+   * edit, and later edits do not change it.
+   */
+  public List<MyPLException> diagnostics() {
+    if (diagnostics == null) {
+      List<MyPLException> list = new ArrayList<>(errorCount);
+      for (int u = 0; list.size() < errorCount; u++) {
+        UnitErrors unit = unitErrors[u < gap ? u : u + gapLength];
+        if (unit == null)
+          continue;
+        int first = unitToken(u);
+        for (int e = 0; e < unit.count; e++) {
+          int token = first + unit.tokens[e];
+          list.add(new MyPLException("Parser", unit.messages[e], tokens.line(token),
+                                     tokens.column(token)));
+        }
+      }
+      diagnostics = Collections.unmodifiableList(list);
+    }
+    return diagnostics;
+  }
+
+  // the number of top-level units
+  public int units() {
+    return units;
+  }
+
+  // the number of units the last edit (or the first parse) parsed
+  public int reparsed() {
+    return reparsed;
+  }
+
+
+  /* Helper Functions */
+
+  // the errors of a unit: the token of each (from the unit's first
+  // token) and its message
+  private static class UnitErrors {
+    int[] tokens = new int[2];
+    String[] messages = new String[2];
+    int count;
+
+    void add(int token, String message) {
+      if (count == tokens.length) {
+        tokens = Arrays.copyOf(tokens, count * 2);
+        messages = Arrays.copyOf(messages, count * 2);
+      }
+      tokens[count] = token;
+      messages[count++] = message;
+    }
+  }
+
+  // updates the tree after an edit of the tokens: the tokens before
+  // prefix, and at or after suffixStart (the previous tokens at or
+  // after suffixStart - shift), have the same types as in the previous
+  // version. The units from the last one starting before prefix are
+  // parsed again, up to the first one the parser starts (shifted) where
+  // a previous unit after the edited tokens started, and replace the
+  // previous ones
+  private void update(int prefix, int suffixStart, int shift) throws MyPLException {
+    int before = lastUnitBefore(prefix);
+    int from = Math.max(before, 0);  // first previous unit replaced
+    this.suffixStart = suffixStart;
+    this.shift = shift;
+    old = before + 1;
+    to = units;                      // first previous unit kept after them
+    count = 0;
+    errors.clear();
+    parser.reset(tokens, before >= 0 ? unitToken(before) : 0, tokens.size() - 1);
+    parser.parse(scratch);
+    reparsed = count;
+
+    // find the top-level statements and errors of the units parsed (by
+    // their nodes in scratch)
+    int root = scratch.root();
+    int u = 0;
+    for (int statement = scratch.firstChild(root); statement >= 0;
+         statement = scratch.nextSibling(statement)) {
+      while (u + 1 < count && statement >= newNodes[u + 1])
+        u++;
+      if (newFirsts[u] < 0)
+        newFirsts[u] = statement - newNodes[u];
+      newLasts[u] = statement - newNodes[u];
+    }
+    // (each error recorded is an ERROR node at its token, in order)
+    u = 0;
+    for (int node = root + 1, e = 0; e < errors.size(); node++) {
+      if (scratch.kind(node) != SyntaxTree.ERROR)
+        continue;
+      while (u + 1 < count && node >= newNodes[u + 1])
+        u++;
+      if (newErrors[u] == null)
+        newErrors[u] = new UnitErrors();
+      newErrors[u].add(scratch.token(node) - newTokens[u], errors.get(e++).getMessage());
+    }
+    for (int r = from; r < to; r++) {
+      UnitErrors unit = unitErrors[r < gap ? r : r + gapLength];
+      if (unit != null)
+        errorCount -= unit.count;
+    }
+    errorCount += errors.size();
+    diagnostics = null;
+
+    // splice their nodes into the tree in place of the previous ones
+    // (shifting the tokens of the nodes after them), and link their
+    // statements to the ones before and after them
+    int oldSize = tree.size();
+    int offset = tree.splice(unitNode(from), unitNode(to), scratch, root + 1,
+                             scratch.size(), shift);
+    for (int n = 0; n < count; n++)
+      newNodes[n] += offset;
+    spliceUnits(from, to - from, shift, tree.size() - oldSize);
+    tree.addChild(tree.root(), lastStatementBefore(from), firstStatementFrom(from));
+    tree.addChild(tree.root(), lastStatementBefore(from + count),
+                  firstStatementFrom(from + count));
+  }
+
+  // the parser's TopLevelListener: records the units the current edit
+  // finds, and stops at the first one starting (shifted) where a
+  // previous unit after the edited tokens started
+  private boolean atStatement(int token, int node) {
+    if (token >= suffixStart) {
+      while (old < units && unitToken(old) < token - shift)
+        old++;
+      if (old < units && unitToken(old) == token - shift) {
+        to = old;
+        return true;
+      }
+    }
+    if (count == newTokens.length) {
+      newTokens = Arrays.copyOf(newTokens, count * 2);
+      newNodes = Arrays.copyOf(newNodes, count * 2);
+      newFirsts = Arrays.copyOf(newFirsts, count * 2);
+      newLasts = Arrays.copyOf(newLasts, count * 2);
+      newErrors = Arrays.copyOf(newErrors, count * 2);
+    }
+    newTokens[count] = token;
+    newNodes[count] = node;
+    newFirsts[count] = -1;
+    newLasts[count] = -1;
+    newErrors[count++] = null;
+    return false;
+  }
+
+  // replaces the units [from, from + removed) with the count units the
+  // edit found, and shifts the first tokens and nodes of the units
+  // after them by tokenDelta and nodeDelta
+  private void spliceUnits(int from, int removed, int tokenDelta, int nodeDelta) {
+    moveGap(from);
+    Arrays.fill(unitErrors, gap + gapLength, gap + gapLength + removed, null);
+    gapLength += removed;
+    units -= removed;
+    if (count > gapLength)
+      growGap(count);
+    System.arraycopy(newTokens, 0, unitTokens, gap, count);
+    System.arraycopy(newNodes, 0, unitNodes, gap, count);
+    System.arraycopy(newFirsts, 0, firstStatements, gap, count);
+    System.arraycopy(newLasts, 0, lastStatements, gap, count);
+    System.arraycopy(newErrors, 0, unitErrors, gap, count);
+    gap += count;
+    gapLength -= count;
+    units += count;
+    tokenShift += tokenDelta;
+    nodeShift += nodeDelta;
+  }
+
+  // the last top-level statement of the units before the given one, or
+  // -1 if there is none
+  private int lastStatementBefore(int unit) {
+    for (int u = unit - 1; u >= 0; u--) {
+      int last = lastStatements[u < gap ? u : u + gapLength];
+      if (last >= 0)
+        return unitNode(u) + last;
+    }
+    return -1;
+  }
+
+  // the first top-level statement of the given unit or the ones after
+  // it, or -1 if there is none
+  private int firstStatementFrom(int unit) {
+    for (int u = unit; u < units; u++) {
+      int first = firstStatements[u < gap ? u : u + gapLength];
+      if (first >= 0)
+        return unitNode(u) + first;
+    }
+    return -1;
+  }
+
+  // the first token of the given unit (or the EOS token, for units)
+  private int unitToken(int unit) {
+    return unit < gap ? unitTokens[unit] : unitTokens[unit + gapLength] + tokenShift;
+  }
+
+  // the first node of the given unit (or the size of the tree, for
+  // units)
+  private int unitNode(int unit) {
+    return unit < gap ? unitNodes[unit] : unitNodes[unit + gapLength] + nodeShift;
+  }
+
+  // the last unit starting before the given token, or -1 if there is
+  // none
+  private int lastUnitBefore(int token) {
+    int low = 0;
+    int high = units - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (unitToken(middle) < token)
+        low = middle + 1;
+      else
+        high = middle - 1;
+    }
+    return high;
+  }
+
+  // moves the gap of the units to the given index, moving the units in
+  // between (and their first tokens and nodes to or from the shifted
+  // form)
+  private void moveGap(int index) {
+    if (index < gap) {
+      move(index, index + gapLength, gap - index);
+      for (int i = index + gapLength; i < gap + gapLength; i++) {
+        unitTokens[i] -= tokenShift;
+        unitNodes[i] -= nodeShift;
+      }
+    } else if (index > gap) {
+      move(gap + gapLength, gap, index - gap);
+      for (int i = gap; i < index; i++) {
+        unitTokens[i] += tokenShift;
+        unitNodes[i] += nodeShift;
+      }
+    }
+    gap = index;
+  }
+
+  // moves the units [from, from + count) to the given index
+  private void move(int from, int to, int count) {
+    System.arraycopy(unitTokens, from, unitTokens, to, count);
+    System.arraycopy(unitNodes, from, unitNodes, to, count);
+    System.arraycopy(firstStatements, from, firstStatements, to, count);
+    System.arraycopy(lastStatements, from, lastStatements, to, count);
+    System.arraycopy(unitErrors, from, unitErrors, to, count);
+  }
+
+  // makes the gap hold at least the given number of units
+  private void growGap(int needed) {
+    int capacity = Math.max(unitTokens.length * 2, units + 1 + needed);
+    int count = units + 1 - gap;  // (with the entry after the last unit)
+    int from = gap + gapLength;
+    int to = capacity - count;
+    unitTokens = widen(unitTokens, capacity, from, to, count);
+    unitNodes = widen(unitNodes, capacity, from, to, count);
+    firstStatements = widen(firstStatements, capacity, from, to, count);
+    lastStatements = widen(lastStatements, capacity, from, to, count);
+    UnitErrors[] wider = Arrays.copyOf(unitErrors, capacity);
+    System.arraycopy(unitErrors, from, wider, to, count);
+    Arrays.fill(wider, from, to, null);
+    unitErrors = wider;
+    gapLength = to - gap;
+  }
+
+  // a copy of the given array with the given capacity, with the
+  // entries [from, from + count) moved to the given index
+  private static int[] widen(int[] array, int capacity, int from, int to, int count) {
+    int[] wider = Arrays.copyOf(array, capacity);
+    System.arraycopy(array, from, wider, to, count);
+    return wider;
+  }
+}
@@ -0,0 +1,105 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: Keywords.java
+ *
+ * Reserved word recognition for the lexer. The reserved words are
+ * taken from the reserved word section of TokenType (INT_TYPE through
+ * NIL) and placed in a small table using a minimal collision-free hash
+ * of a word's first character, last character, and length. Looking up
+ * an identifier is then one hash computation and at most one character
+ * comparison, and never allocates.
+ */
+
+
+public class Keywords {
+
+  private static final int SLOTS = 64;                // power of two
+  private static final String[] WORDS = new String[SLOTS];
+  private static final TokenType[] TYPES = new TokenType[SLOTS];
+  private static final String[] SPELLINGS = new String[TokenType.values().length];
+  private static int firstFactor;
+  private static int lastFactor;
+  private static int minLength = Integer.MAX_VALUE;
+  private static int maxLength = 0;
+
+
+  /**
+   * Returns the reserved word type of the source bytes [start, end),
+   * or ID if the bytes are not a reserved word.
+   */
+  public static TokenType lookup(SourceBuffer source, int start, int end) {
+    int length = end - start;
+    if (length < minLength || length > maxLength)
+      return TokenType.ID;
+    byte first = source.byteAt(start);
+    byte last = source.byteAt(end - 1);
+    if (first < 0 || last < 0)
+      return TokenType.ID;
+    int s = slot(first, last, length);
+    String word = WORDS[s];
+    if (word == null || word.length() != length)
+      return TokenType.ID;
+    for (int i = 0; i < length; i++) {
+      if (word.charAt(i) != source.byteAt(start + i))
+        return TokenType.ID;
+    }
+    return TYPES[s];
+  }
+
+  /**
+   * Returns the spelling of the given reserved word type, or null if
+   * the type is not a reserved word.
+   */
+  public static String spelling(TokenType type) {
+    return SPELLINGS[type.ordinal()];
+  }
+
+
+  private static int slot(int first, int last, int length) {
+    return (first * firstFactor + last * lastFactor + length) & (SLOTS - 1);
+  }
+
+  // derives the reserved word spellings from their token type names
+  // (INT_TYPE is "int", WHILE is "while", ...) and then finds hash
+  // factors that place every reserved word in its own slot (failing if
+  // there are none, e.g., after reserved words are added, rather than
+  // leaving a table that finds the wrong words)
+  static {
+    TokenType[] all = TokenType.values();
+    for (int i = TokenType.INT_TYPE.ordinal(); i <= TokenType.NIL.ordinal(); i++) {
+      String name = all[i].name().toLowerCase();
+      if (name.endsWith("_type"))
+        name = name.substring(0, name.length() - "_type".length());
+      SPELLINGS[i] = name;
+    }
+    boolean placed = false;
+    for (int a = 1; a < SLOTS && !placed; a++) {
+      for (int b = 1; b < SLOTS && !placed; b++) {
+        firstFactor = a;
+        lastFactor = b;
+        placed = place();
+      }
+    }
+    if (!placed)
+      throw new IllegalStateException("no collision-free hash for the reserved words in "
+                                      + SLOTS + " slots");
+  }
+
+  // fills the table with the current factors; false on a collision
+  private static boolean place() {
+    java.util.Arrays.fill(WORDS, null);
+    TokenType[] all = TokenType.values();
+    for (int i = TokenType.INT_TYPE.ordinal(); i <= TokenType.NIL.ordinal(); i++) {
+      String word = SPELLINGS[i];
+      int s = slot(word.charAt(0), word.charAt(word.length() - 1), word.length());
+      if (WORDS[s] != null)
+        return false;
+      WORDS[s] = word;
+      TYPES[s] = all[i];
+      minLength = Math.min(minLength, word.length());
+      maxLength = Math.max(maxLength, word.length());
+    }
+    return true;
+  }
+}
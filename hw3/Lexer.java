@@ -7,477 +7,442 @@
  * each call to nextToken advances the lexer to the next token (which
  * is returned by nextToken). The file has been completed read when
  * nextToken returns the EOS token. Lexical errors in the source file
- * result in the nextToken function throwing a MyPL Exception.
+ * result in the nextToken function throwing a MyPL Exception, unless
+ * the lexer is collecting diagnostics (see setDiagnostics).
+ *
+ * Tokens are recognized by a table-driven scanner: the character
+ * classes, state transitions, and accepting states are precomputed in
+ * LexerTable, and nextToken simply walks the table. The values of int
+ * and double literals are computed while their digits are scanned.
+ * Runs of spaces, comment bodies, and identifiers are skipped in bulk
+ * by ScanKernel instead of one character at a time.
  */
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
 public class Lexer {
 
-  private BufferedReader buffer; // handle to input stream
+  private InputStream instream; // input stream still being read (if any)
+  private SourceBuffer source;  // bytes of the source file
+  private int position;         // offset in source of the next character
+  private int limit;            // offset where the lexer's input ends
+  private int peekLength;       // bytes in the character last peeked
   private int line;
   private int column;
+  private int tokenStart;        // offset of the last scanned token
+  private int tokenColumn;      // column of the last scanned token
+  private int tokenSymbol;      // symbol id of the last scanned token
+  private long tokenValue;      // value of the last scanned number
+  private SymbolTable symbols;  // table identifiers are interned in
+  private List<MyPLException> diagnostics; // errors recorded (if set)
+
+  // powers of ten that are exact as doubles
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
   
   
   /** 
+   * Create a lexer over the given input stream. The stream is read
+   * in chunks into the lexer's source buffer as the lexer needs more
+   * input, so the stream does not need to be buffered.
    */
   public Lexer(InputStream instream) {
-    buffer = new BufferedReader(new InputStreamReader(instream));
-    this.line = 1;
-    this.column = 0;
+    this(new SourceBuffer());
+    this.instream = instream;
   }
 
-  
   /**
-   * Returns next character in the stream. Returns -1 if end of file.
+   * Create a lexer over the given file, which is memory mapped and
+   * scanned directly as UTF-8 bytes.
    */
-  private int read() throws MyPLException {
-    try {
-      int ch = buffer.read();
-      return ch;
-    } catch(IOException e) {
-      error("read error", line, column + 1);
-    }
-    return -1;
+  public Lexer(Path path) throws IOException {
+    this(SourceBuffer.map(path));
   }
 
-  
-  /** 
-   * Returns next character without removing it from the stream.
+  /**
+   * Create a lexer over the file of the given channel, which is memory
+   * mapped and scanned directly as UTF-8 bytes.
    */
-  private int peek() throws MyPLException {
-    int ch = -1;
-    try {
-      buffer.mark(1);
-      ch = read();
-      buffer.reset();
-    } catch(IOException e) {
-      error("read error", line, column + 1);
-    }
-    return ch;
+  public Lexer(FileChannel channel) throws IOException {
+    this(SourceBuffer.map(channel));
   }
 
-
   /**
-   * Print an error message and exit the program.
+   * Create a lexer over the bytes [start, end) of the given source,
+   * where the first character is at the given line and column.
    */
-  private void error(String msg, int line, int column) throws MyPLException {
-    throw new MyPLException("Lexer", msg, line, column);
+  public Lexer(SourceBuffer source, int start, int end, int line, int column) {
+    this.source = source;
+    this.position = start;
+    this.limit = end;
+    this.line = line;
+    this.column = column;
+  }
+
+  private Lexer(SourceBuffer source) {
+    this(source, 0, source.length(), 1, 0);
   }
+
+
   /**
+   * Makes the lexer ready to read the bytes [start, end) of the given
+   * source, where the first character is at the given line and column,
+   * keeping its symbol table and diagnostics list.
    */
-  public Token nextToken() throws MyPLException {
-    // TODO: your job in HW2 is to implement the next token function
-    //column++;
-    int initialColumn = column;
-    String lexeme = "";
-    int cur;
-    String message;
-    boolean isID = false;
-    boolean isReserved = false;
-    boolean isNum = false;
-    cur = peek();
-    
-    //thinking of making while loop not include new line or whitespace so that it'll only loop
-    //if it doesn't hit that, probably going to add that once I finish everything else.
-    while(peek() != -1){
-      //checks for new line character
-      if((char)cur == '\n'){
-        read();
-        line += 1;
-        column = 1;
-        initialColumn = column;
-        cur = peek();
-      }
-
-      //Going to take care of white space first
-      else if(Character.isWhitespace(cur)) {
-        read();
-        column++;
-        initialColumn = column;
-        cur = peek();
-      }
+  public void reset(SourceBuffer source, int start, int end, int line, int column) {
+    this.instream = null;
+    this.source = source;
+    this.position = start;
+    this.limit = end;
+    this.line = line;
+    this.column = column;
+    peekLength = 0;
+    tokenStart = 0;
+    tokenColumn = 0;
+    tokenSymbol = 0;
+    tokenValue = 0;
+  }
 
-      //checking if it is a letter and will proceed to make a string and check
-      //if it is a reserved word
-      else if (Character.isLetter(cur)){
-        if(!(isNum)){
-          isID =  true;
-          isReserved = true;
-        }
-        
-        lexeme += (char)read();
-        column++;
-        cur = peek();
-        while(Character.isLetter(cur)){
-          lexeme += (char)read();
-          column++;
-          cur = peek();
-        }
 
-        //will uncheck if it is not a reserved word
-        if(Character.isDigit(cur)){
-          isReserved = false;
-        }
+  /**
+   * Interns the identifiers read from now on into the given table, so
+   * identifier tokens carry an int symbol id.
+   */
+  public void setSymbolTable(SymbolTable symbols) {
+    this.symbols = symbols;
+  }
 
-        else if((char)cur == '_'){
-          lexeme += read();
-          column++;
-          cur = peek();
-          isReserved = false;
-        }
 
-        //will now go through all of the reserved words
-        if(isReserved){
-          if(lexeme.equals("int")){
-            return new Token(TokenType.INT_TYPE, lexeme, line, initialColumn);
-          }
+  /**
+   * Records errors in the given list instead of throwing them. After
+   * an error, the lexer skips ahead to the next whitespace character
+   * and continues, so all of the errors are found in one pass.
+   */
+  public void setDiagnostics(List<MyPLException> diagnostics) {
+    this.diagnostics = diagnostics;
+  }
 
-          else if(lexeme.equals("bool")){
-            return new Token(TokenType.BOOL_TYPE, lexeme, line, initialColumn);
-          }
+  
+  /**
+   * Moves past the character last returned by peek.
+   */
+  private void read() {
+    position += peekLength;
+  }
 
-          else if(lexeme.equals("double")){
-            return new Token(TokenType.DOUBLE_TYPE, lexeme, line, initialColumn);
-          }
+  
+  /** 
+   * Returns next character without removing it from the stream.
+   * Returns -1 if end of file.
+   */
+  private int peek() throws MyPLException {
+    if (position == limit && !fill()) {
+      peekLength = 0;
+      return -1;
+    }
+    byte b = source.byteAt(position);
+    if (b >= 0) {
+      peekLength = 1;
+      return b;
+    }
+    return decodeAt(position);
+  }
 
-          else if(lexeme.equals("char")){
-            return new Token(TokenType.CHAR_TYPE, lexeme, line, initialColumn);
-          }
 
-          else if(lexeme.equals("string")){
-            return new Token(TokenType.STRING_TYPE, lexeme, line, initialColumn);
-          }
+  // decodes the UTF-8 encoded character at the given offset and sets
+  // peekLength to its size in bytes; a malformed byte is read on its
+  // own as U+FFFD
+  private int decodeAt(int offset) throws MyPLException {
+    int b = source.byteAt(offset) & 0xFF;
+    peekLength = 1;
+    int extra = b >= 0xF8 ? 0 : b >= 0xF0 ? 3 : b >= 0xE0 ? 2 : b >= 0xC0 ? 1 : 0;
+    if (extra == 0)
+      return 0xFFFD;
+    int ch = b & (0x3F >> extra);
+    for (int i = 1; i <= extra; i++) {
+      if (offset + i == limit && !fill())
+        return 0xFFFD;
+      int next = source.byteAt(offset + i);
+      if ((next & 0xC0) != 0x80)
+        return 0xFFFD;
+      ch = (ch << 6) | (next & 0x3F);
+    }
+    peekLength = extra + 1;
+    return ch;
+  }
 
-          else if(lexeme.equals("nil")){
-            return new Token(TokenType.NIL, lexeme, line, initialColumn);
-          }
 
-          else if(lexeme.equals("type")){
-            return new Token(TokenType.TYPE, lexeme, line, initialColumn);
-          }
+  // reads the next chunk of the input stream into the source buffer,
+  // returning false if there is no more input
+  private boolean fill() throws MyPLException {
+    if (instream == null)
+      return false;
+    try {
+      if (source.fill(instream) > 0) {
+        limit = source.length();
+        return true;
+      }
+    } catch(IOException e) {
+      error("read error", line, column + 1);
+    }
+    instream = null;
+    return false;
+  }
 
-          else if(lexeme.equals("and")){
-            return new Token(TokenType.AND, lexeme, line, initialColumn);
-          }
 
-          else if(lexeme.equals("or")){
-            return new Token(TokenType.OR, lexeme, line, initialColumn);
-          }
+  /**
+   * Throws an error, or records it when collecting diagnostics.
+   */
+  private void error(String msg, int line, int column) throws MyPLException {
+    MyPLException e = new MyPLException("Lexer", msg, line, column);
+    if (diagnostics == null)
+      throw e;
+    diagnostics.add(e);
+  }
 
-          else if(lexeme.equals("not")){
-            return new Token(TokenType.NOT, lexeme, line, initialColumn);
-          }
 
-          else if(lexeme.equals("neg")){
-            return new Token(TokenType.NEG, lexeme, line, initialColumn);
-          }
+  /**
+   * Returns the next token in the stream.
+   */
+  public Token nextToken() throws MyPLException {
+    TokenType type = scan();
+    return token(source, type, tokenStart, position, tokenSymbol, tokenValue,
+                 line, tokenColumn);
+  }
 
-          else if(lexeme.equals("while")){
-            return new Token(TokenType.WHILE, lexeme, line, initialColumn);
-          }
 
-          else if(lexeme.equals("for")){
-            return new Token(TokenType.FOR, lexeme, line, initialColumn);
-          }
+  /**
+   * Reads all of the remaining tokens (through EOS) into a compact
+   * token buffer without creating a Token object per token.
+   */
+  public TokenBuffer tokenizeAll() throws MyPLException {
+    TokenBuffer tokens = tokenBuffer();
+    while (nextTokenInto(tokens) != TokenType.EOS)
+      ;
+    return tokens;
+  }
 
-          else if(lexeme.equals("to")){
-            return new Token(TokenType.TO, lexeme, line, initialColumn);
-          }
 
-          else if(lexeme.equals("do")){
-            return new Token(TokenType.DO, lexeme, line, initialColumn);
-          }
+  /**
+   * Creates an empty token buffer for the tokens of this lexer's source
+   * (interning identifiers in its symbol table, if it has one).
+   */
+  public TokenBuffer tokenBuffer() {
+    return new TokenBuffer(source, symbols);
+  }
 
-          else if(lexeme.equals("if")){
-            return new Token(TokenType.IF, lexeme, line, initialColumn);
-          }
 
-          else if(lexeme.equals("then")){
-            return new Token(TokenType.THEN, lexeme, line, initialColumn);
-          }
+  /**
+   * Empties the given token buffer (keeping its memory) for the tokens
+   * of this lexer's source, and returns it.
+   */
+  public TokenBuffer tokenBuffer(TokenBuffer reuse) {
+    reuse.reset(source, symbols);
+    return reuse;
+  }
 
-          else if(lexeme.equals("elif")){
-            return new Token(TokenType.ELIF, lexeme, line, initialColumn);
-          }
 
-          else if(lexeme.equals("else")){
-            return new Token(TokenType.ELSE, lexeme, line, initialColumn);
-          }
+  /**
+   * Reads the next token into the given buffer, returning its type.
+   */
+  public TokenType nextTokenInto(TokenBuffer tokens) throws MyPLException {
+    TokenType type = scan();
+    tokens.add(type, tokenStart, tokenSymbol, tokenValue, line, tokenColumn);
+    return type;
+  }
 
-          else if(lexeme.equals("end")){
-            return new Token(TokenType.END, lexeme, line, initialColumn);
-          }
 
-          else if(lexeme.equals("fun")){
-            return new Token(TokenType.FUN, lexeme, line, initialColumn);
-          }
+  /**
+   * Returns an iterator over the remaining tokens (not including
+   * EOS). Lexer errors are thrown as UncheckedMyPLException.
+   */
+  public Iterator<Token> iterator() {
+    return Spliterators.iterator(spliterator());
+  }
 
-          else if(lexeme.equals("var")){
-            return new Token(TokenType.VAR, lexeme, line, initialColumn);
-          }
 
-          else if(lexeme.equals("set")){
-            return new Token(TokenType.SET, lexeme, line, initialColumn);
-          }
+  /**
+   * Returns a spliterator over the remaining tokens (not including
+   * EOS). Lexer errors are thrown as UncheckedMyPLException.
+   */
+  public Spliterator<Token> spliterator() {
+    return new TokenSpliterator(this);
+  }
 
-          else if(lexeme.equals("return")){
-            return new Token(TokenType.RETURN, lexeme, line, initialColumn);
-          }
 
-          else if(lexeme.equals("new")){
-            return new Token(TokenType.NEW, lexeme, line, initialColumn);
-          }
-        }
+  /**
+   * Returns a stream of the remaining tokens (not including EOS).
+   * Lexer errors are thrown as UncheckedMyPLException.
+   */
+  public Stream<Token> tokens() {
+    return StreamSupport.stream(spliterator(), false);
+  }
 
-        if(!(Character.isDigit(cur)) && !(Character.isLetter(cur)) && (char)cur != '_'){
-          return new Token(TokenType.ID, lexeme, line, initialColumn);
-        }
-      }
 
-      //checks to see if it is a digit and will then create a string of digits
-      //that may include decimals.
-      else if (Character.isDigit(cur)){
-        if(isID ==  false && isReserved == false){
-          isNum = true;
-        }
+  /**
+   * Returns the offset just past the token starting at the given
+   * offset of the source, which must hold a token scanned earlier.
+   */
+  public static int tokenEnd(SourceBuffer source, int start) {
+    Lexer lexer = new Lexer(source, start, source.length(), 1, 0);
+    lexer.diagnostics = new ArrayList<>(1);   // e.g., a recorded overflow
+    try {
+      lexer.scan();
+    } catch (MyPLException e) {
+      throw new IllegalStateException("no token at offset " + start + ": " + e);
+    }
+    return lexer.position;
+  }
 
-        lexeme += (char)read();
-        column++;
-        cur = peek();
-        if(isNum){
-        //going to check for invalid numbers
-          if((char)cur == '0'){
-            if(Character.isDigit(cur)){
-              message = "Invalid int or double assignment";
-              error(message, line, initialColumn);
-            }
-          }
-
-          while(Character.isDigit(cur)){
-            lexeme += (char)read();
-            column++;
-            cur = peek();
-          }
-          //deals with double values
-          if((char)cur == '.'){
-            lexeme += (char)read();
-            column++;
-            cur = peek();
-            while(Character.isDigit(cur)){
-              lexeme += (char)read();
-              cur = peek();
-              column++;
-            }
-            if((char)cur == '.'){
-              message = "invalid double value";
-              error(message, line, initialColumn);
-            }
-            return new Token(TokenType.DOUBLE_VAL, lexeme, line, initialColumn);
-          }
-
-          else if(Character.isLetter(cur)){
-            message = "Cannot have letters in a number";
-            error(message, line, initialColumn);
-          }
-
-          return new Token(TokenType.INT_VAL, lexeme, line, initialColumn);
-        }
 
-        //this will handle if it is an identifier
-        else {
-          while(Character.isDigit(cur)){
-            lexeme += (char)read();
-            column++;
-            cur = peek();
-          }
-          if((char)cur == '_'){
-            lexeme += (char)read();
-            column++;
-            cur = peek();
-          }
-          else if(!(Character.isLetter(cur)) && !(Character.isDigit(cur)) && (char)cur != '_'){
-            return new Token(TokenType.ID, lexeme, line, initialColumn);
-          }
-        }
-      }
+  /**
+   * Creates a token for the source bytes [start, end), where the
+   * token's text is a slice of the source (without the quotes of
+   * string and char values). The symbol is the id of an interned
+   * identifier, or -1, and the value is the value of an int literal
+   * (or the bits of a double literal's value).
+   */
+  public static Token token(SourceBuffer source, TokenType type, int start,
+                            int end, int symbol, long value, int line,
+                            int column) {
+    if (type == TokenType.STRING_VAL || type == TokenType.CHAR_VAL)
+      return new Token(type, source, start + 1, end - 1, -1, 0, line, column);
+    // reserved words share one lexeme (NOT is also the one-character "!")
+    String spelling = Keywords.spelling(type);
+    if (spelling != null && spelling.length() == end - start)
+      return new Token(type, spelling, line, column);
+    return new Token(type, source, start, end, symbol, value, line, column);
+  }
 
 
-      //handles comments
-      else if((char)cur == '#'){
-        read();
-        cur = peek();
-        //will go through until it hits a new line
-        while((char)cur != '\n'){
-          read();
-          cur = peek();
-        }
-        //when it hits a new line, then it will increment the line appropriately
-        //and go to first column
-        if((char)cur == '\n'){
-          read();
-          line++;
-          column = 1;
-          initialColumn = column;
-          cur = peek();
+  /**
+   * Scans the next token, returning its type and leaving the position
+   * just past it, and tokenStart and tokenColumn at its start. The
+   * scanner starts in the START state and follows the transitions in
+   * LexerTable one character at a time until the table says to emit
+   * the token of the current state (or to report an error).
+   */
+  private TokenType scan() throws MyPLException {
+    int state = LexerTable.START;
+    int startColumn = column;
+    int start = position;
+    int consumed = 0;         // characters read for the current token
+    long digits = 0;          // digits of a number (-1 if too many)
+    int scale = 0;            // digits after the decimal point
+    while (true) {
+      int ch = peek();
+      int next = LexerTable.next(state, LexerTable.classOf(ch));
+      if (next == LexerTable.EMIT) {
+        tokenStart = start;
+        tokenColumn = startColumn;
+        column = startColumn + consumed - LexerTable.uncounted(state);
+        TokenType type = LexerTable.accept(state);
+        tokenSymbol = -1;
+        tokenValue = 0;
+        if (type == TokenType.INT_VAL || type == TokenType.DOUBLE_VAL) {
+          tokenValue = numberValue(type, digits, scale, start, startColumn);
+        } else if (type == TokenType.ID) {
+          type = Keywords.lookup(source, start, position);
+          if (type == TokenType.ID && symbols != null)
+            tokenSymbol = symbols.intern(source, start, position);
         }
+        return type;
       }
-
-      //now for symbols
-      else if((char)cur == ':'){
-        lexeme += (char)read();
-        column++;
-        cur = peek();
-        if((char)cur == '='){
-          lexeme += (char)read();
+      if (next < 0) {
+        int errorColumn = startColumn;
+        if (LexerTable.atCurrentColumn(next))
+          errorColumn += consumed;
+        error(LexerTable.message(next), line, errorColumn);
+        // recover by skipping to the next whitespace character
+        column = startColumn + consumed;
+        for (int c = ch; !isSafe(c); c = peek()) {
+          read();
           column++;
-          return new  Token(TokenType.ASSIGN, ":=", line, initialColumn);
-        } else {
-          message = "Ivalid assignment declaration";
-          error(message, line, initialColumn);
         }
+        state = LexerTable.START;
+        startColumn = column;
+        start = position;
+        consumed = 0;
+        digits = 0;
+        scale = 0;
+        continue;
       }
-
-      else if((char)cur == '.'){
-        lexeme += (char)read();
-        column++;
-        return new Token(TokenType.DOT, lexeme, line, initialColumn);
-      }
-
-      else if((char)cur == ','){
-        lexeme += (char)read();
-        column++;
-        return new Token(TokenType.COMMA, lexeme, line, initialColumn);
-      }
-
-      else if((char)cur == '+'){
-        lexeme += (char)read();
-        return new Token(TokenType.PLUS, lexeme, line, initialColumn);
-      }
-
-      else if((char)cur == '-'){
-        lexeme += (char)read();
-        column++;
-        return new Token(TokenType.MINUS, lexeme, line, initialColumn);
-      }
-
-      else if((char)cur == '*'){
-        read();
-        return new Token(TokenType.MULTIPLY, "*", line, column);
-      }
-
-      else if((char)cur == '/'){
-        read();
-        return new Token(TokenType.DIVIDE, "/", line, column);
-      }
-
-      else if((char)cur == '%'){
-        read();
-        return new Token(TokenType.MODULO, "%", line, column);
-      }
-
-      else if((char)cur == '='){
-        lexeme += (char)read();
-        //add in error if they do a '=='
-        cur = peek();
-        if((char)cur == '='){
-          message = "Invalid comparison with '=='";
+      read();
+      if (next == LexerTable.START || next == LexerTable.COMMENT) {
+        // skipping whitespace and comments
+        if (ch == '\n') {
+          line++;
+          column = 1;
+        } else if (next == LexerTable.START) {
           column++;
-          error(message, line, initialColumn);
-        } else {
-          return new Token(TokenType.EQUAL, lexeme, line, column);
         }
-      }
-
-      else if((char)cur == '>'){
-        lexeme += (char)read();
-        column++;
-        cur = peek();
-        if((char)cur == '='){
-          lexeme += (char)read();
-          column++;
-          return new Token(TokenType.GREATER_THAN_EQUAL, lexeme, line, initialColumn);
+        if (next == LexerTable.START) {
+          int end = ScanKernel.skipSpaces(source, position, limit);
+          column += end - position;
+          position = end;
         } else {
-          return new Token(TokenType.GREATER_THAN, lexeme, line, initialColumn);
+          position = ScanKernel.skipComment(source, position, limit);
         }
-      }
-
-      //deals with strings
-      else if((char)cur == '\"'){
-        read();
-        column++;
-        cur = peek();
-        while((char)cur != '\"'){
-          //check to see if there is a new line in the string
-          if((char)cur == '\n'){
-            message = "Cannot have new lines in a string";
-            error(message, line, column);
-          }
-          lexeme += (char)read();
-          column++;
-          cur = peek();
+        startColumn = column;
+        start = position;
+      } else {
+        consumed += Character.charCount(ch);
+        if (next == LexerTable.IDENT) {
+          int end = ScanKernel.skipIdentifier(source, position, limit);
+          consumed += end - position;
+          position = end;
+        } else if (next >= LexerTable.INT_FIRST && next <= LexerTable.DOUBLE
+            && ch != '.' && digits >= 0) {
+          if (next == LexerTable.DOUBLE)
+            scale++;
+          int digit = ch - '0';
+          digits = digits <= (Long.MAX_VALUE - digit) / 10 ? digits * 10 + digit : -1;
         }
-        column++;
-        read();
-        return new Token(TokenType.STRING_VAL, lexeme, line, initialColumn);
       }
+      state = next;
+    }
+  }
 
-      //deals with character values
-      else if((char)cur == '\''){
-        read();
-        column++;
-        cur = peek();
-        while((char)cur != '\''){
-          lexeme += (char)read();
-          column++;
-          cur = peek();
-        }
-        read();
-        column++;
-        return new Token(TokenType.CHAR_VAL, lexeme, line, initialColumn);
-      }
-      else if((char)cur == '<'){
-        lexeme += (char)read();
-        cur = peek();
-        if((char)cur == '='){
-          lexeme += (char)read();
-          column++;
-          return new Token(TokenType.LESS_THAN_EQUAL, lexeme, line, initialColumn);
-        } else {
-          return new Token(TokenType.LESS_THAN, lexeme, line, initialColumn);
-        }
-      }
 
-      else if((char)cur == '!'){
-        lexeme += (char)read();
-        column++;
-        cur = peek();
-        if((char)cur == '='){
-          lexeme += (char)read();
-          column++;
-          return new Token(TokenType.NOT_EQUAL, lexeme, line, initialColumn);
-        } else {
-          return new Token(TokenType.NOT, lexeme, line, initialColumn);
-        }
-      }
+  // true for the characters the scanner can restart on after an error
+  private static boolean isSafe(int ch) {
+    int cls = LexerTable.classOf(ch);
+    return cls == LexerTable.C_SPACE || cls == LexerTable.C_NEWLINE
+      || cls == LexerTable.C_EOF;
+  }
 
-      else if((char)cur == '('){
-        lexeme += (char)read();
-        column++;
-        return new Token(TokenType.LPAREN, lexeme, line, initialColumn);
-      }
 
-      else if((char)cur == ')'){
-        lexeme += (char)read();
-        column++;
-        return new Token(TokenType.RPAREN, lexeme, line, initialColumn);
+  // the value of the number just scanned from the given digits (-1 if
+  // they did not fit in a long) and number of digits after the decimal
+  // point; a double's value is returned as its bits
+  private long numberValue(TokenType type, long digits, int scale, int start,
+                           int startColumn) throws MyPLException {
+    if (type == TokenType.INT_VAL) {
+      if (digits < 0) {
+        error("int value out of range", line, startColumn);
+        return 0;
       }
+      return digits;
     }
-    
-    if (peek() == -1){
-      return new Token(TokenType.EOS, "", line, column);
-    }
-    return null;
+    double value;
+    if (digits >= 0 && digits < (1L << 53) && scale < POWERS_OF_TEN.length)
+      value = digits / POWERS_OF_TEN[scale];   // exact, so correctly rounded
+    else
+      value = Double.parseDouble(source.text(start, position));
+    if (Double.isInfinite(value))
+      error("double value out of range", line, startColumn);
+    return Double.doubleToRawLongBits(value);
   }
-}
\ No newline at end of file
+}
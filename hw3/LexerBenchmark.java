@@ -0,0 +1,307 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: LexerBenchmark.java
+ *
+ * Simple timing driver for the lexer. Each benchmark generates its own
+ * input in memory, runs a few warm-up rounds, and then reports the
+ * best time over several measured rounds. Run with the name of the
+ * benchmark to run (e.g., java LexerBenchmark keywords).
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+
+public class LexerBenchmark {
+
+  private static final int WARMUP = 5;
+  private static final int ROUNDS = 10;
+
+  public static void main(String[] args) throws MyPLException, IOException {
+    String which = args.length > 0 ? args[0] : "keywords";
+    if (which.equals("keywords")) {
+      keywords();
+    } else if (which.equals("input")) {
+      input();
+    } else if (which.equals("parallel")) {
+      parallel();
+    } else if (which.equals("incremental")) {
+      incremental();
+    } else if (which.equals("skipping")) {
+      skipping();
+    } else {
+      System.out.println("Unknown benchmark '" + which + "'");
+      System.exit(1);
+    }
+  }
+
+
+  /* Benchmarks */
+
+  // reserved word recognition: one string comparison per reserved
+  // word versus the Keywords hash table, and then the whole lexer
+  // over identifier-heavy source
+  private static void keywords() throws MyPLException {
+    String[] words = identifierHeavy(200000).split("[^A-Za-z0-9_]+");
+    long best = Long.MAX_VALUE;
+    int found = 0;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      found = 0;
+      for (String w : words)
+        if (compareEach(w) != TokenType.ID)
+          found++;
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("string comparisons", words.length, best);
+    SourceBuffer source = new SourceBuffer();
+    int[] offsets = new int[words.length + 1];
+    for (int i = 0; i < words.length; i++) {
+      for (byte b : words[i].getBytes())
+        source.append(b);
+      offsets[i + 1] = source.length();
+    }
+    best = Long.MAX_VALUE;
+    int hashed = 0;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      hashed = 0;
+      for (int i = 0; i < words.length; i++)
+        if (Keywords.lookup(source, offsets[i], offsets[i + 1]) != TokenType.ID)
+          hashed++;
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("Keywords.lookup", words.length, best);
+    if (found != hashed)
+      System.out.println("MISMATCH: " + found + " vs " + hashed + " reserved words");
+    lex("lexer (identifier heavy)", identifierHeavy(200000).getBytes());
+  }
+
+
+  // reading a file through an input stream versus memory mapping it
+  private static void input() throws MyPLException, IOException {
+    Path file = Files.createTempFile("bench", ".mypl");
+    try {
+      Files.write(file, identifierHeavy(400000).getBytes());
+      long best = Long.MAX_VALUE;
+      int tokens = 0;
+      for (int round = 0; round < WARMUP + ROUNDS; round++) {
+        long start = System.nanoTime();
+        try (InputStream in = Files.newInputStream(file)) {
+          tokens = count(new Lexer(in));
+        }
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      report("input stream", tokens, best);
+      System.out.printf("  %.1f MB/s%n", Files.size(file) / (best / 1e9) / 1e6);
+      best = Long.MAX_VALUE;
+      for (int round = 0; round < WARMUP + ROUNDS; round++) {
+        long start = System.nanoTime();
+        tokens = count(new Lexer(file));
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      report("memory mapped", tokens, best);
+      System.out.printf("  %.1f MB/s%n", Files.size(file) / (best / 1e9) / 1e6);
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+
+  // one lexer over the whole source versus ParallelLexer
+  private static void parallel() throws MyPLException {
+    byte[] bytes = identifierHeavy(2000000).getBytes();
+    SourceBuffer source = new SourceBuffer(ByteBuffer.wrap(bytes));
+    long best = Long.MAX_VALUE;
+    int tokens = 0;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      tokens = new Lexer(source, 0, bytes.length, 1, 0).tokenizeAll().size();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("sequential", tokens, best);
+    System.out.printf("  %.1f MB/s%n", bytes.length / (best / 1e9) / 1e6);
+    best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      tokens = ParallelLexer.tokenize(source).size();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("parallel (" + ForkJoinPool.commonPool().getParallelism() + " workers)",
+           tokens, best);
+    System.out.printf("  %.1f MB/s%n", bytes.length / (best / 1e9) / 1e6);
+    // the chunks must join into the sequential tokens (with at least 8
+    // chunks, so they are joined even on one core)
+    TokenBuffer expected = new Lexer(source, 0, bytes.length, 1, 0).tokenizeAll();
+    TokenBuffer chunked = ParallelLexer.tokenize(source, ForkJoinPool.commonPool(),
+                                                 bytes.length / 8);
+    if (!sameTokens(expected, chunked)) {
+      System.out.println("parallel tokens differ from the sequential tokens");
+      System.exit(1);
+    }
+  }
+
+
+  // re-lexing a 50k line source after a one line edit versus lexing
+  // the whole edited source again (each incremental round inserts the
+  // text and then removes it)
+  private static void incremental() throws MyPLException {
+    byte[] bytes = identifierHeavy(50000).getBytes();
+    SourceBuffer source = new SourceBuffer(ByteBuffer.wrap(bytes));
+    TokenBuffer tokens = new Lexer(source, 0, bytes.length, 1, 0).tokenizeAll();
+    int offset = bytes.length / 2;
+    long best = Long.MAX_VALUE;
+    int size = 0;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      SourceBuffer edited = source.edit(offset, 0, " x := y ".getBytes());
+      size = new Lexer(edited, 0, edited.length(), 1, 0).tokenizeAll().size();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("full re-lex", size, best);
+    IncrementalLexer lexer = new IncrementalLexer(tokens);
+    best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      lexer.edit(offset, 0, " x := y ");
+      best = Math.min(best, System.nanoTime() - start);
+      size = tokens.size();
+      lexer.edit(offset, " x := y ".length(), "");
+    }
+    report("incremental re-lex", size, best);
+  }
+
+
+  // the lexer over comment-heavy and identifier-heavy source, where
+  // most bytes are in runs that ScanKernel skips in bulk
+  private static void skipping() throws MyPLException {
+    String identifiers = identifierHeavy(200000);
+    String[] lines = identifiers.split("\n");
+    StringBuilder comments = new StringBuilder();
+    for (int i = 0; i < lines.length; i++) {
+      comments.append("        # ").append(lines[i]).append(" and more words about it\n");
+      if (i % 4 == 0)
+        comments.append("    ").append(lines[i]).append("\n");
+    }
+    StringBuilder longNames = new StringBuilder();
+    for (String line : lines)
+      longNames.append(line.replaceAll("([a-z]+)", "$1_with_a_long_descriptive_name")).append("\n");
+    lexBuffer("comment heavy", comments.toString().getBytes());
+    lexBuffer("identifier heavy", identifiers.getBytes());
+    lexBuffer("long identifiers", longNames.toString().getBytes());
+  }
+
+
+  /* Helper Functions */
+
+  // whether two buffers hold the same tokens (also used by
+  // ParserBenchmark)
+  static boolean sameTokens(TokenBuffer a, TokenBuffer b) {
+    if (a.size() != b.size())
+      return false;
+    for (int i = 0; i < a.size(); i++)
+      if (a.type(i) != b.type(i) || a.start(i) != b.start(i) || a.line(i) != b.line(i)
+          || a.column(i) != b.column(i) || a.intValue(i) != b.intValue(i))
+        return false;
+    return true;
+  }
+
+  // number of tokens (not counting EOS) left in the lexer
+  private static int count(Lexer lexer) throws MyPLException {
+    int tokens = 0;
+    while (lexer.nextToken().type() != TokenType.EOS)
+      tokens++;
+    return tokens;
+  }
+
+
+  // times the lexer over the given source, reporting tokens and bytes
+  // per second
+  private static void lex(String name, byte[] source) throws MyPLException {
+    long best = Long.MAX_VALUE;
+    int tokens = 0;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      tokens = count(new Lexer(new ByteArrayInputStream(source)));
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report(name, tokens, best);
+    System.out.printf("  %.1f MB/s%n", source.length / (best / 1e9) / 1e6);
+  }
+
+  // times tokenizeAll over the given source held in memory
+  private static void lexBuffer(String name, byte[] bytes) throws MyPLException {
+    SourceBuffer source = new SourceBuffer(ByteBuffer.wrap(bytes));
+    long best = Long.MAX_VALUE;
+    int tokens = 0;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      tokens = new Lexer(source, 0, bytes.length, 1, 0).tokenizeAll().size();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report(name, tokens, best);
+    System.out.printf("  %.1f MB/s%n", bytes.length / (best / 1e9) / 1e6);
+  }
+
+  private static void report(String name, int count, long nanos) {
+    System.out.printf("%-30s %10d items %8.2f ms %8.1f ns/item%n",
+                      name, count, nanos / 1e6, (double) nanos / count);
+  }
+
+  // MyPL source made mostly of identifiers with some reserved words
+  private static String identifierHeavy(int lines) {
+    String[] names = {"count", "total", "node", "value", "result", "index",
+                      "left", "right", "next", "data", "buffer", "offset"};
+    Random random = new Random(42);
+    StringBuilder s = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      String a = names[random.nextInt(names.length)] + random.nextInt(9);
+      String b = names[random.nextInt(names.length)];
+      String c = names[random.nextInt(names.length)] + "_" + b;
+      switch (random.nextInt(4)) {
+        case 0: s.append("var " + a + " := " + b + "." + c + "\n"); break;
+        case 1: s.append("set " + a + " := " + b + "(" + c + ", " + a + ")\n"); break;
+        case 2: s.append("while " + a + " < " + b + " do " + c + " end\n"); break;
+        default: s.append(a + " " + b + " " + c + " " + b + "\n"); break;
+      }
+    }
+    return s.toString();
+  }
+
+  // the reserved word check the lexer used to do
+  private static TokenType compareEach(String lexeme) {
+    if (lexeme.equals("int")) return TokenType.INT_TYPE;
+    else if (lexeme.equals("bool")) return TokenType.BOOL_TYPE;
+    else if (lexeme.equals("double")) return TokenType.DOUBLE_TYPE;
+    else if (lexeme.equals("char")) return TokenType.CHAR_TYPE;
+    else if (lexeme.equals("string")) return TokenType.STRING_TYPE;
+    else if (lexeme.equals("nil")) return TokenType.NIL;
+    else if (lexeme.equals("type")) return TokenType.TYPE;
+    else if (lexeme.equals("and")) return TokenType.AND;
+    else if (lexeme.equals("or")) return TokenType.OR;
+    else if (lexeme.equals("not")) return TokenType.NOT;
+    else if (lexeme.equals("neg")) return TokenType.NEG;
+    else if (lexeme.equals("while")) return TokenType.WHILE;
+    else if (lexeme.equals("for")) return TokenType.FOR;
+    else if (lexeme.equals("to")) return TokenType.TO;
+    else if (lexeme.equals("do")) return TokenType.DO;
+    else if (lexeme.equals("if")) return TokenType.IF;
+    else if (lexeme.equals("then")) return TokenType.THEN;
+    else if (lexeme.equals("elif")) return TokenType.ELIF;
+    else if (lexeme.equals("else")) return TokenType.ELSE;
+    else if (lexeme.equals("end")) return TokenType.END;
+    else if (lexeme.equals("fun")) return TokenType.FUN;
+    else if (lexeme.equals("var")) return TokenType.VAR;
+    else if (lexeme.equals("set")) return TokenType.SET;
+    else if (lexeme.equals("return")) return TokenType.RETURN;
+    else if (lexeme.equals("new")) return TokenType.NEW;
+    return TokenType.ID;
+  }
+}
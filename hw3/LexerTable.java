@@ -0,0 +1,325 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: LexerTable.java
+ *
+ * Precomputed tables for the table-driven MyPL scanner. Every input
+ * character is mapped to a character class (through a lookup table
+ * for ASCII and a slower Character-based path for everything else),
+ * and the scanner moves between states by looking up the pair
+ * (state, class) in a single transition table. A transition either
+ * consumes the character and moves to a new state, emits the token
+ * accepted by the current state, or reports a lexical error.
+ */
+
+
+public class LexerTable {
+
+  /* Character classes */
+
+  public static final int C_EOF = 0;
+  public static final int C_SPACE = 1;       // whitespace other than newline
+  public static final int C_NEWLINE = 2;
+  public static final int C_LETTER = 3;
+  public static final int C_ZERO = 4;
+  public static final int C_DIGIT = 5;       // digits other than '0'
+  public static final int C_UNDERSCORE = 6;
+  public static final int C_DQUOTE = 7;
+  public static final int C_SQUOTE = 8;
+  public static final int C_HASH = 9;
+  public static final int C_COLON = 10;
+  public static final int C_EQUAL = 11;
+  public static final int C_DOT = 12;
+  public static final int C_COMMA = 13;
+  public static final int C_PLUS = 14;
+  public static final int C_MINUS = 15;
+  public static final int C_STAR = 16;
+  public static final int C_SLASH = 17;
+  public static final int C_PERCENT = 18;
+  public static final int C_GREATER = 19;
+  public static final int C_LESS = 20;
+  public static final int C_BANG = 21;
+  public static final int C_LPAREN = 22;
+  public static final int C_RPAREN = 23;
+  public static final int C_OTHER = 24;
+  public static final int CLASSES = 25;
+
+  /* Scanner states */
+
+  public static final int START = 0;
+  public static final int COMMENT = 1;
+  public static final int IDENT = 2;
+  public static final int INT_FIRST = 3;     // exactly one digit seen
+  public static final int INT = 4;
+  public static final int DOUBLE = 5;
+  public static final int STRING = 6;
+  public static final int STRING_END = 7;
+  public static final int CHAR = 8;
+  public static final int CHAR_END = 9;
+  public static final int COLON = 10;
+  public static final int ASSIGN = 11;
+  public static final int DOT = 12;
+  public static final int COMMA = 13;
+  public static final int PLUS = 14;
+  public static final int MINUS = 15;
+  public static final int MULTIPLY = 16;
+  public static final int DIVIDE = 17;
+  public static final int MODULO = 18;
+  public static final int EQUAL = 19;
+  public static final int GREATER = 20;
+  public static final int GREATER_EQUAL = 21;
+  public static final int LESS = 22;
+  public static final int LESS_EQUAL = 23;
+  public static final int BANG = 24;
+  public static final int NOT_EQUAL = 25;
+  public static final int LPAREN = 26;
+  public static final int RPAREN = 27;
+  public static final int STATES = 28;
+
+  /* Transition results that are not states */
+
+  public static final int EMIT = -1;
+  public static final int ERR_CHARACTER = -2;
+  public static final int ERR_ASSIGN = -3;
+  public static final int ERR_EQUALS = -4;
+  public static final int ERR_ZERO = -5;
+  public static final int ERR_LETTER = -6;
+  public static final int ERR_DOUBLE = -7;
+  public static final int ERR_STRING_NEWLINE = -8;
+  public static final int ERR_STRING_EOF = -9;
+  public static final int ERR_CHAR_EOF = -10;
+
+  private static final String[] MESSAGES = {
+    null,
+    null,
+    "Invalid character",
+    "Ivalid assignment declaration",
+    "Invalid comparison with '=='",
+    "Invalid int or double assignment",
+    "Cannot have letters in a number",
+    "invalid double value",
+    "Cannot have new lines in a string",
+    "Missing closing quote for string",
+    "Missing closing quote for character"
+  };
+
+  private static final byte[] ASCII_CLASS = new byte[128];
+  private static final byte[] TRANSITIONS = new byte[STATES * CLASSES];
+  private static final TokenType[] ACCEPT = new TokenType[STATES];
+  private static final byte[] UNCOUNTED = new byte[STATES];
+
+
+  /**
+   * Returns the character class of the given character (or -1 for
+   * end of stream).
+   */
+  public static int classOf(int ch) {
+    if (ch < 0)
+      return C_EOF;
+    if (ch < 128)
+      return ASCII_CLASS[ch];
+    return unicodeClassOf(ch);
+  }
+
+  /**
+   * Returns the result of seeing a character of the given class in
+   * the given state: a state to move to (consuming the character),
+   * EMIT, or one of the ERR_ codes.
+   */
+  public static int next(int state, int charClass) {
+    return TRANSITIONS[state * CLASSES + charClass];
+  }
+
+  /**
+   * Returns the token type accepted when emitting from the given
+   * state, or null if the state is not accepting.
+   */
+  public static TokenType accept(int state) {
+    return ACCEPT[state];
+  }
+
+  /**
+   * Returns the number of consumed characters not added to the column
+   * count for tokens accepted in the given state. The original
+   * hand-written scanner did not advance the column for some
+   * operators, and token positions are kept identical to it.
+   */
+  public static int uncounted(int state) {
+    return UNCOUNTED[state];
+  }
+
+  /**
+   * Returns the message for the given error code.
+   */
+  public static String message(int errorCode) {
+    return MESSAGES[-errorCode];
+  }
+
+  /**
+   * True if the given error is reported at the current column rather
+   * than at the column where the token started.
+   */
+  public static boolean atCurrentColumn(int errorCode) {
+    return errorCode == ERR_STRING_NEWLINE;
+  }
+
+
+  // slow path for characters outside of ASCII
+  private static int unicodeClassOf(int ch) {
+    if (Character.isLetter(ch))
+      return C_LETTER;
+    if (Character.isDigit(ch))
+      return C_DIGIT;
+    if (Character.isWhitespace(ch))
+      return C_SPACE;
+    return C_OTHER;
+  }
+
+
+  /* Table construction */
+
+  static {
+    for (int ch = 0; ch < 128; ch++) {
+      if (Character.isWhitespace(ch))
+        ASCII_CLASS[ch] = C_SPACE;
+      else if ((ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z'))
+        ASCII_CLASS[ch] = C_LETTER;
+      else if (ch >= '1' && ch <= '9')
+        ASCII_CLASS[ch] = C_DIGIT;
+      else
+        ASCII_CLASS[ch] = C_OTHER;
+    }
+    ASCII_CLASS['\n'] = C_NEWLINE;
+    ASCII_CLASS['0'] = C_ZERO;
+    ASCII_CLASS['_'] = C_UNDERSCORE;
+    ASCII_CLASS['"'] = C_DQUOTE;
+    ASCII_CLASS['\''] = C_SQUOTE;
+    ASCII_CLASS['#'] = C_HASH;
+    ASCII_CLASS[':'] = C_COLON;
+    ASCII_CLASS['='] = C_EQUAL;
+    ASCII_CLASS['.'] = C_DOT;
+    ASCII_CLASS[','] = C_COMMA;
+    ASCII_CLASS['+'] = C_PLUS;
+    ASCII_CLASS['-'] = C_MINUS;
+    ASCII_CLASS['*'] = C_STAR;
+    ASCII_CLASS['/'] = C_SLASH;
+    ASCII_CLASS['%'] = C_PERCENT;
+    ASCII_CLASS['>'] = C_GREATER;
+    ASCII_CLASS['<'] = C_LESS;
+    ASCII_CLASS['!'] = C_BANG;
+    ASCII_CLASS['('] = C_LPAREN;
+    ASCII_CLASS[')'] = C_RPAREN;
+
+    // by default every state emits its token on any character
+    java.util.Arrays.fill(TRANSITIONS, (byte) EMIT);
+
+    // whitespace, newlines, and comments
+    all(START, ERR_CHARACTER);
+    on(START, C_EOF, EMIT);
+    on(START, C_SPACE, START);
+    on(START, C_NEWLINE, START);
+    on(START, C_HASH, COMMENT);
+    all(COMMENT, COMMENT);
+    on(COMMENT, C_NEWLINE, START);
+    on(COMMENT, C_EOF, EMIT);
+
+    // identifiers and reserved words
+    on(START, C_LETTER, IDENT);
+    on(IDENT, C_LETTER, IDENT);
+    on(IDENT, C_ZERO, IDENT);
+    on(IDENT, C_DIGIT, IDENT);
+    on(IDENT, C_UNDERSCORE, IDENT);
+
+    // int and double values
+    on(START, C_ZERO, INT_FIRST);
+    on(START, C_DIGIT, INT_FIRST);
+    on(INT_FIRST, C_ZERO, ERR_ZERO);
+    on(INT_FIRST, C_DIGIT, INT);
+    on(INT_FIRST, C_DOT, DOUBLE);
+    on(INT_FIRST, C_LETTER, ERR_LETTER);
+    on(INT, C_ZERO, INT);
+    on(INT, C_DIGIT, INT);
+    on(INT, C_DOT, DOUBLE);
+    on(INT, C_LETTER, ERR_LETTER);
+    on(DOUBLE, C_ZERO, DOUBLE);
+    on(DOUBLE, C_DIGIT, DOUBLE);
+    on(DOUBLE, C_DOT, ERR_DOUBLE);
+
+    // string and char values
+    on(START, C_DQUOTE, STRING);
+    all(STRING, STRING);
+    on(STRING, C_DQUOTE, STRING_END);
+    on(STRING, C_NEWLINE, ERR_STRING_NEWLINE);
+    on(STRING, C_EOF, ERR_STRING_EOF);
+    on(START, C_SQUOTE, CHAR);
+    all(CHAR, CHAR);
+    on(CHAR, C_SQUOTE, CHAR_END);
+    on(CHAR, C_EOF, ERR_CHAR_EOF);
+
+    // symbols
+    on(START, C_COLON, COLON);
+    all(COLON, ERR_ASSIGN);
+    on(COLON, C_EQUAL, ASSIGN);
+    on(START, C_DOT, DOT);
+    on(START, C_COMMA, COMMA);
+    on(START, C_PLUS, PLUS);
+    on(START, C_MINUS, MINUS);
+    on(START, C_STAR, MULTIPLY);
+    on(START, C_SLASH, DIVIDE);
+    on(START, C_PERCENT, MODULO);
+    on(START, C_EQUAL, EQUAL);
+    on(EQUAL, C_EQUAL, ERR_EQUALS);
+    on(START, C_GREATER, GREATER);
+    on(GREATER, C_EQUAL, GREATER_EQUAL);
+    on(START, C_LESS, LESS);
+    on(LESS, C_EQUAL, LESS_EQUAL);
+    on(START, C_BANG, BANG);
+    on(BANG, C_EQUAL, NOT_EQUAL);
+    on(START, C_LPAREN, LPAREN);
+    on(START, C_RPAREN, RPAREN);
+
+    // accepting states
+    ACCEPT[START] = TokenType.EOS;
+    ACCEPT[COMMENT] = TokenType.EOS;
+    ACCEPT[IDENT] = TokenType.ID;
+    ACCEPT[INT_FIRST] = TokenType.INT_VAL;
+    ACCEPT[INT] = TokenType.INT_VAL;
+    ACCEPT[DOUBLE] = TokenType.DOUBLE_VAL;
+    ACCEPT[STRING_END] = TokenType.STRING_VAL;
+    ACCEPT[CHAR_END] = TokenType.CHAR_VAL;
+    ACCEPT[ASSIGN] = TokenType.ASSIGN;
+    ACCEPT[DOT] = TokenType.DOT;
+    ACCEPT[COMMA] = TokenType.COMMA;
+    ACCEPT[PLUS] = TokenType.PLUS;
+    ACCEPT[MINUS] = TokenType.MINUS;
+    ACCEPT[MULTIPLY] = TokenType.MULTIPLY;
+    ACCEPT[DIVIDE] = TokenType.DIVIDE;
+    ACCEPT[MODULO] = TokenType.MODULO;
+    ACCEPT[EQUAL] = TokenType.EQUAL;
+    ACCEPT[GREATER] = TokenType.GREATER_THAN;
+    ACCEPT[GREATER_EQUAL] = TokenType.GREATER_THAN_EQUAL;
+    ACCEPT[LESS] = TokenType.LESS_THAN;
+    ACCEPT[LESS_EQUAL] = TokenType.LESS_THAN_EQUAL;
+    ACCEPT[BANG] = TokenType.NOT;
+    ACCEPT[NOT_EQUAL] = TokenType.NOT_EQUAL;
+    ACCEPT[LPAREN] = TokenType.LPAREN;
+    ACCEPT[RPAREN] = TokenType.RPAREN;
+
+    UNCOUNTED[PLUS] = 1;
+    UNCOUNTED[MULTIPLY] = 1;
+    UNCOUNTED[DIVIDE] = 1;
+    UNCOUNTED[MODULO] = 1;
+    UNCOUNTED[EQUAL] = 1;
+    UNCOUNTED[LESS] = 1;
+    UNCOUNTED[LESS_EQUAL] = 1;
+  }
+
+  private static void on(int state, int charClass, int result) {
+    TRANSITIONS[state * CLASSES + charClass] = (byte) result;
+  }
+
+  private static void all(int state, int result) {
+    for (int c = 0; c < CLASSES; c++)
+      on(state, c, result);
+  }
+}
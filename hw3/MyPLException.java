@@ -10,12 +10,26 @@
 public class MyPLException extends Exception {
 
   public MyPLException(String type, String message, int line, int column) {
+    // errors are reported by position, so skip the (costly) stack trace
+    super(message, null, false, false);
     this.type = type;
     this.message = message;
     this.line = line;
     this.column = column;
   }
 
+  public String getType() {
+    return type;
+  }
+
+  public int getLine() {
+    return line;
+  }
+
+  public int getColumn() {
+    return column;
+  }
+
   @Override
   public String toString() {
     return type + " error: " + message + " at line " + line + " column " + column;
@@ -0,0 +1,140 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: ParallelLexer.java
+ *
+ * Lexes a whole source in parallel. The source is split into chunks
+ * that each end just after a newline, and each chunk is lexed on its
+ * own (as if it started a file at column 1) by a task in a
+ * ForkJoinPool. The chunk results are then joined in order, shifting
+ * their line numbers by the lines of the chunks before them.
+ *
+ * Comments end at a newline and strings cannot contain one, so a
+ * newline is almost always between tokens. The exception is a char
+ * value, which may contain a newline: a chunk that ends inside one
+ * fails (as does any chunk with a real lexical error), and from the
+ * first failed chunk on the source is lexed sequentially. The result,
+ * including which error is reported, is the same as lexing the whole
+ * source with a single Lexer.
+ */
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+public class ParallelLexer {
+
+  private static final int MIN_CHUNK = 64 * 1024;
+
+  /**
+   * Lexes the given (memory mapped) file on the common pool.
+   */
+  public static TokenBuffer tokenize(Path path) throws IOException, MyPLException {
+    return tokenize(SourceBuffer.map(path));
+  }
+
+  /**
+   * Lexes the given source on the common pool.
+   */
+  public static TokenBuffer tokenize(SourceBuffer source) throws MyPLException {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    int chunk = Math.max(MIN_CHUNK, source.length() / (4 * pool.getParallelism()));
+    return tokenize(source, pool, chunk);
+  }
+
+  /**
+   * Lexes the given source on the given pool using chunks of about
+   * chunkSize bytes.
+   */
+  public static TokenBuffer tokenize(SourceBuffer source, ForkJoinPool pool,
+                                     int chunkSize) throws MyPLException {
+    return tokenize(source, null, pool, chunkSize);
+  }
+
+  /**
+   * Lexes the given source on the given pool using chunks of about
+   * chunkSize bytes, interning identifiers in the given table (if not
+   * null).
+   */
+  public static TokenBuffer tokenize(SourceBuffer source, SymbolTable symbols,
+                                     ForkJoinPool pool, int chunkSize)
+    throws MyPLException
+  {
+    List<Integer> starts = chunkStarts(source, chunkSize);
+    List<Callable<Object>> tasks = new ArrayList<>();
+    for (int i = 0; i < starts.size(); i++) {
+      int start = starts.get(i);
+      int end = i + 1 < starts.size() ? starts.get(i + 1) : source.length();
+      int column = start == 0 ? 0 : 1;
+      tasks.add(() -> lexChunk(source, symbols, start, end, column));
+    }
+    List<Future<Object>> results = pool.invokeAll(tasks);
+
+    // join the chunks, switching to a single lexer at the first chunk
+    // that failed
+    TokenBuffer tokens = new TokenBuffer(source, symbols);
+    int lineOffset = 0;
+    for (int i = 0; i < results.size(); i++) {
+      Object result = get(results.get(i));
+      if (!(result instanceof TokenBuffer)) {
+        int column = i == 0 ? 0 : 1;
+        Lexer lexer = new Lexer(source, starts.get(i), source.length(), 1 + lineOffset, column);
+        lexer.setSymbolTable(symbols);
+        TokenBuffer rest = lexer.tokenizeAll();
+        tokens.append(rest, 0, rest.size(), 0, 0);
+        break;
+      }
+      TokenBuffer chunk = (TokenBuffer) result;
+      boolean last = i == results.size() - 1;
+      // every chunk but the last ends with an EOS that is dropped
+      tokens.append(chunk, 0, last ? chunk.size() : chunk.size() - 1, 0, lineOffset);
+      lineOffset += chunk.line(chunk.size() - 1) - 1;
+    }
+    return tokens;
+  }
+
+
+  /* Helper Functions */
+
+  // returns the chunk's tokens, or the exception if lexing failed
+  private static Object lexChunk(SourceBuffer source, SymbolTable symbols,
+                                 int start, int end, int column) {
+    try {
+      Lexer lexer = new Lexer(source, start, end, 1, column);
+      lexer.setSymbolTable(symbols);
+      return lexer.tokenizeAll();
+    } catch (MyPLException e) {
+      return e;
+    }
+  }
+
+  // offsets where chunks start: 0, and then the offset just past the
+  // first newline after every chunkSize bytes
+  private static List<Integer> chunkStarts(SourceBuffer source, int chunkSize) {
+    List<Integer> starts = new ArrayList<>();
+    starts.add(0);
+    int offset = chunkSize;
+    while (offset < source.length()) {
+      while (offset < source.length() && source.byteAt(offset - 1) != '\n')
+        offset++;
+      if (offset < source.length())
+        starts.add(offset);
+      offset += chunkSize;
+    }
+    return starts;
+  }
+
+  private static Object get(Future<Object> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IllegalStateException("lexing task failed", e);
+    }
+  }
+}
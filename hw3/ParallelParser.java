@@ -0,0 +1,188 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: ParallelParser.java
+ *
+ * Parses the tokens of a whole program in parallel. A quick pass over
+ * the tokens tracks the nesting of blocks (FUN, TYPE, FOR, WHILE, and
+ * IF open one, END closes it) and splits the program into segments
+ * just before reserved words that start a top-level statement. Each
+ * segment is parsed on its own (as a whole program) by a task in a
+ * ForkJoinPool, and the results (errors and syntax trees) are joined
+ * in order.
+ *
+ * A segment that ends before its last construct does (e.g., when the
+ * nesting the pass tracked is not what the parser found, because of a
+ * syntax error) fails at its end, and from that segment on the
+ * program is parsed sequentially. Any other segment ends where a
+ * single parser would be between top-level statements, so the
+ * result, including the errors reported and their order, is the same
+ * as parsing the program with a single Parser.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+public class ParallelParser {
+
+  private static final int MIN_SEGMENT = 16 * 1024;
+
+  /**
+   * Parses the given tokens on the common pool. On error, throws a
+   * MyPLException.
+   */
+  public static void parse(TokenBuffer tokens) throws MyPLException {
+    parse(tokens, null, null);
+  }
+
+  /**
+   * Parses the given tokens on the common pool, building the program's
+   * syntax tree into the given tree (if not null) and recording errors
+   * in the given list (if not null) instead of throwing them.
+   */
+  public static SyntaxTree parse(TokenBuffer tokens, SyntaxTree tree,
+                                 List<MyPLException> diagnostics)
+    throws MyPLException
+  {
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    int threads = pool.getParallelism();
+    int segment = threads == 1 ? tokens.size()
+      : Math.max(MIN_SEGMENT, tokens.size() / (4 * threads));
+    return parse(tokens, tree, diagnostics, pool, segment);
+  }
+
+  /**
+   * Parses the given tokens on the given pool using segments of at
+   * least segmentSize tokens, building the program's syntax tree into
+   * the given tree (if not null) and recording errors in the given list
+   * (if not null) instead of throwing them.
+   */
+  public static SyntaxTree parse(TokenBuffer tokens, SyntaxTree tree,
+                                 List<MyPLException> diagnostics,
+                                 ForkJoinPool pool, int segmentSize)
+    throws MyPLException
+  {
+    List<Integer> starts = segmentStarts(tokens, segmentSize);
+    if (starts.size() == 1) {
+      Parser parser = new Parser(tokens);
+      if (diagnostics != null)
+        parser.setDiagnostics(diagnostics);
+      if (tree == null)
+        parser.parse();
+      else
+        parser.parse(tree);
+      return tree;
+    }
+    int end = tokens.size() - 1;
+    List<Callable<Segment>> tasks = new ArrayList<>();
+    for (int i = 0; i < starts.size(); i++) {
+      int from = starts.get(i);
+      int to = i + 1 < starts.size() ? starts.get(i + 1) : end;
+      tasks.add(() -> parseSegment(tokens, from, to, tree != null, diagnostics != null));
+    }
+    List<Future<Segment>> results = pool.invokeAll(tasks);
+
+    // join the segments, switching to a single parser at the first
+    // segment that failed at its end
+    if (tree != null) {
+      tree.reset(tokens);
+      tree.setRoot(tree.add(SyntaxTree.PROGRAM, -1));
+    }
+    int last = -1;
+    for (int i = 0; i < results.size(); i++) {
+      Segment segment = get(results.get(i));
+      boolean rest = i + 1 == results.size();
+      if (segment.failedAtEnd && !rest) {
+        segment = parseSegment(tokens, starts.get(i), end, tree != null,
+                               diagnostics != null);
+        rest = true;
+      }
+      if (segment.error != null)
+        throw segment.error;
+      if (diagnostics != null)
+        diagnostics.addAll(segment.diagnostics);
+      if (tree != null)
+        last = tree.appendProgram(segment.tree, last);
+      if (rest)
+        break;
+    }
+    return tree;
+  }
+
+
+  /* Helper Functions */
+
+  // the result of parsing a segment
+  private static class Segment {
+    MyPLException error;               // error thrown (if not recording)
+    List<MyPLException> diagnostics;   // errors recorded (if recording)
+    SyntaxTree tree;                   // the segment's tree (if built)
+    boolean failedAtEnd;               // an error was found at its end
+  }
+
+  // parses the tokens [from, to) as a whole program
+  private static Segment parseSegment(TokenBuffer tokens, int from, int to,
+                                      boolean buildTree, boolean record) {
+    Segment segment = new Segment();
+    Parser parser = new Parser(tokens, from, to);
+    if (record) {
+      segment.diagnostics = new ArrayList<>();
+      parser.setDiagnostics(segment.diagnostics);
+    }
+    try {
+      if (buildTree)
+        segment.tree = parser.parse(new SyntaxTree());
+      else
+        parser.parse();
+    } catch (MyPLException e) {
+      segment.error = e;
+    }
+    segment.failedAtEnd = parser.failedAtEnd();
+    return segment;
+  }
+
+  // indexes of the tokens where segments start: 0, and then the first
+  // reserved word starting a top-level statement after every
+  // segmentSize tokens
+  private static List<Integer> segmentStarts(TokenBuffer tokens, int segmentSize) {
+    List<Integer> starts = new ArrayList<>();
+    starts.add(0);
+    int depth = 0;
+    int next = segmentSize;
+    for (int i = 0; i < tokens.size(); i++) {
+      TokenType type = tokens.type(i);
+      if (depth == 0 && i >= next
+          && ParserTable.contains(ParserTable.STATEMENT_START, type)) {
+        starts.add(i);
+        next = i + segmentSize;
+      }
+      depth = nesting(type, depth);
+    }
+    return starts;
+  }
+
+  // the nesting of blocks after a token, given the nesting before it
+  private static int nesting(TokenType type, int depth) {
+    switch (type) {
+      case FUN: case TYPE: case FOR: case WHILE: case IF:
+        return depth + 1;
+      case END:
+        return depth > 0 ? depth - 1 : 0;
+      default:
+        return depth;
+    }
+  }
+
+  private static Segment get(Future<Segment> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IllegalStateException("parsing task failed", e);
+    }
+  }
+}
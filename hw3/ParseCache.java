@@ -0,0 +1,314 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: ParseCache.java
+ *
+ * On-disk cache of parse results, so files that did not change since
+ * the last run are not lexed and parsed again. Entries are addressed
+ * by content: the file name is a 64-bit hash of the source (see
+ * SourceBuffer.hash) and Parser.VERSION, so a changed file or parser
+ * simply misses. An entry holds the errors found and, if they were
+ * built, the tokens and syntax tree, in a compact binary form (the
+ * arrays of TokenBuffer and SyntaxTree written as they are):
+ *
+ *   magic, format, Parser.VERSION, hash, source length
+ *   error count, then each error's type, message, line, and column
+ *   flags (1: tokens follow, 2: a tree follows)
+ *   tokens (see TokenBuffer.write), tree (see SyntaxTree.write)
+ *
+ * Entries are read through a memory mapping. They are written to a
+ * temporary file that is then renamed over the entry, so readers (in
+ * this or any other process sharing the directory) see either the old
+ * entry or the whole new one. Reading an entry marks it used (by its
+ * modification time), and when the entries take more than the size
+ * limit the least recently used ones are deleted until they take 90%
+ * of it. Temporary files left behind by a writer that died are
+ * deleted (once they are an hour old) when the cache is opened and
+ * when it evicts. An entry that cannot be read for any reason is a
+ * miss, and a result that cannot be written is returned uncached.
+ *
+ * An entry is only checked against the hash and length of the source,
+ * not its bytes, so two sources of the same length with the same hash
+ * would share an entry. This is accepted rather than storing and
+ * comparing the source, which would double the size of an entry and
+ * the work of a hit: with n entries, a source hits another's entry
+ * with a chance of about n / 2^64 (under 2^-34 for a billion entries),
+ * and a collision at worst gives one file another's errors.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class ParseCache {
+
+  private static final int MAGIC = 0x4D504C43;  // "MPLC"
+  private static final int FORMAT = 1;          // version of the entry layout
+  private static final String TEMP_PREFIX = ".tmp-";
+  private static final long STALE_MILLIS = 60 * 60 * 1000;  // age of a dead writer's temp file
+
+  /**
+   * A cached parse result.
+   */
+  public static class Entry {
+    public final List<MyPLException> diagnostics;
+    public final TokenBuffer tokens;  // the tokens (or null if not kept)
+    public final SyntaxTree tree;     // the syntax tree (or null if not built)
+
+    public Entry(List<MyPLException> diagnostics, TokenBuffer tokens, SyntaxTree tree) {
+      this.diagnostics = diagnostics;
+      this.tokens = tokens;
+      this.tree = tree;
+    }
+  }
+
+  private Path directory;
+  private long maxBytes;
+  private AtomicLong bytes = new AtomicLong();  // size of the entries (about)
+  private ParserPool pool = new ParserPool();   // parsers for results without trees
+
+  /**
+   * Create a cache in the given directory (which is created if needed)
+   * whose entries take at most about maxBytes.
+   */
+  public ParseCache(Path directory, long maxBytes) throws IOException {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    Files.createDirectories(directory);
+    deleteStaleTemps();
+    long total = 0;
+    for (Path file : entries())
+      total += size(file);
+    bytes.set(total);
+  }
+
+  /**
+   * Returns the cached result for the given source, or null if there is
+   * none.
+   */
+  public Entry get(SourceBuffer source) {
+    return get(source, source.hash());
+  }
+
+  /**
+   * Returns the cached result for the given source, whose hash is given,
+   * or null if there is none.
+   */
+  public Entry get(SourceBuffer source, long hash) {
+    Path file = file(hash);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (in.getInt() != MAGIC || in.getInt() != FORMAT || in.getInt() != Parser.VERSION
+          || in.getLong() != hash || in.getInt() != source.length())
+        return null;
+      List<MyPLException> diagnostics = new ArrayList<>();
+      for (int count = in.getInt(); count > 0; count--) {
+        String type = getString(in);
+        String message = getString(in);
+        int line = in.getInt();
+        diagnostics.add(new MyPLException(type, message, line, in.getInt()));
+      }
+      int flags = in.get();
+      TokenBuffer tokens = (flags & 1) != 0 ? TokenBuffer.read(in, source) : null;
+      SyntaxTree tree = null;
+      if ((flags & 2) != 0) {
+        tree = new SyntaxTree();
+        tree.read(in, tokens);
+      }
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+      return new Entry(diagnostics, tokens, tree);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException | RuntimeException e) {
+      // unreadable, truncated, or garbled
+      return null;
+    }
+  }
+
+  /**
+   * Stores the result of parsing the given source, whose hash is given.
+   * tokens and tree may be null (the tree needs the tokens).
+   */
+  public void put(SourceBuffer source, long hash, List<MyPLException> diagnostics,
+                  TokenBuffer tokens, SyntaxTree tree) throws IOException {
+    List<byte[]> strings = new ArrayList<>();
+    int size = 28 + 1;
+    for (MyPLException e : diagnostics) {
+      byte[] type = e.getType().getBytes(StandardCharsets.UTF_8);
+      byte[] message = e.getMessage().getBytes(StandardCharsets.UTF_8);
+      strings.add(type);
+      strings.add(message);
+      size += 16 + type.length + message.length;
+    }
+    if (tokens != null)
+      size += tokens.byteSize();
+    if (tree != null)
+      size += tree.byteSize();
+    ByteBuffer out = ByteBuffer.allocate(size);
+    out.putInt(MAGIC).putInt(FORMAT).putInt(Parser.VERSION).putLong(hash)
+      .putInt(source.length()).putInt(diagnostics.size());
+    for (int i = 0; i < diagnostics.size(); i++) {
+      putString(out, strings.get(2 * i));
+      putString(out, strings.get(2 * i + 1));
+      out.putInt(diagnostics.get(i).getLine()).putInt(diagnostics.get(i).getColumn());
+    }
+    out.put((byte)((tokens != null ? 1 : 0) | (tree != null ? 2 : 0)));
+    if (tokens != null)
+      tokens.write(out);
+    if (tree != null)
+      tree.write(out);
+    out.flip();
+
+    Path temp = Files.createTempFile(directory, TEMP_PREFIX, "");
+    try {
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        while (out.hasRemaining())
+          channel.write(out);
+      }
+      Files.move(temp, file(hash), StandardCopyOption.ATOMIC_MOVE,
+                 StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    if (bytes.addAndGet(size) > maxBytes)
+      evict();
+  }
+
+  /**
+   * Returns the result of parsing the given source in diagnostics mode
+   * (with its tokens and tree if buildTree is true): the cached one if
+   * there is one, and otherwise a new one, which is cached (unless
+   * writing it fails).
+   */
+  public Entry parse(SourceBuffer source, boolean buildTree) {
+    long hash = source.hash();
+    Entry entry = get(source, hash);
+    if (entry != null && (entry.tree != null || !buildTree))
+      return entry;
+    if (!buildTree) {
+      List<MyPLException> diagnostics = pool.validate(source);
+      tryPut(source, hash, diagnostics, null, null);
+      return new Entry(diagnostics, null, null);
+    }
+    List<MyPLException> diagnostics = new ArrayList<>();
+    Parser parser = new Parser(new Lexer(source, 0, source.length(), 1, 0));
+    parser.setDiagnostics(diagnostics);
+    SyntaxTree tree = null;
+    try {
+      tree = parser.parse(new SyntaxTree());
+    } catch (MyPLException e) {
+      diagnostics.add(e);
+      tree = null;
+    }
+    TokenBuffer tokens = tree != null ? tree.tokens() : null;
+    tryPut(source, hash, diagnostics, tokens, tree);
+    return new Entry(diagnostics, tokens, tree);
+  }
+
+
+  /* Helper Functions */
+
+  // stores a new result, leaving it uncached if it cannot be written
+  // (e.g., the disk is full or the directory was removed)
+  private void tryPut(SourceBuffer source, long hash, List<MyPLException> diagnostics,
+                      TokenBuffer tokens, SyntaxTree tree) {
+    try {
+      put(source, hash, diagnostics, tokens, tree);
+    } catch (IOException e) {
+      // the result is still good, just not cached
+    }
+  }
+
+  // deletes the least recently used entries until the rest take 90% of
+  // the size limit
+  private synchronized void evict() throws IOException {
+    deleteStaleTemps();
+    List<Path> files = entries();
+    long[] times = new long[files.size()];
+    long[] sizes = new long[files.size()];
+    Integer[] order = new Integer[files.size()];
+    long total = 0;
+    for (int i = 0; i < files.size(); i++) {
+      try {
+        BasicFileAttributes attributes =
+          Files.readAttributes(files.get(i), BasicFileAttributes.class);
+        times[i] = attributes.lastModifiedTime().toMillis();
+        sizes[i] = attributes.size();
+      } catch (IOException e) {
+        // deleted by another process meanwhile
+      }
+      order[i] = i;
+      total += sizes[i];
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+    for (int i = 0; i < order.length && total > maxBytes / 10 * 9; i++) {
+      Files.deleteIfExists(files.get(order[i]));
+      total -= sizes[order[i]];
+    }
+    bytes.set(total);
+  }
+
+  // the entry files of the directory (but not temporary files)
+  private List<Path> entries() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for (Path file : stream)
+        if (!file.getFileName().toString().startsWith(TEMP_PREFIX))
+          files.add(file);
+    }
+    return files;
+  }
+
+  // deletes the temporary files old enough that their writer must have
+  // died before renaming them
+  private void deleteStaleTemps() throws IOException {
+    long stale = System.currentTimeMillis() - STALE_MILLIS;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, TEMP_PREFIX + "*")) {
+      for (Path file : stream) {
+        try {
+          if (Files.getLastModifiedTime(file).toMillis() < stale)
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+          // deleted by another process meanwhile
+        }
+      }
+    }
+  }
+
+  private Path file(long hash) {
+    return directory.resolve(String.format("%016x-%d.parse", hash, Parser.VERSION));
+  }
+
+  private static long size(Path file) {
+    try {
+      return Files.size(file);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private static void putString(ByteBuffer out, byte[] bytes) {
+    out.putInt(bytes.length).put(bytes);
+  }
+
+  private static String getString(ByteBuffer in) {
+    byte[] bytes = new byte[in.getInt()];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,281 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: ParseDaemon.java
+ *
+ * Long-running parser process, so checking a file does not pay for
+ * starting a JVM and warming up the JIT each time. The daemon listens
+ * on a Unix domain socket (java ParseDaemon serve), and a thin client
+ * (java ParseDaemon check file...) sends it the files to check and
+ * prints the results, which are those of BatchValidator.
+ *
+ * The protocol is lines of text, so other clients (e.g., nc -U) can
+ * use it too. Each request is one of:
+ *
+ *   check <path>         lex and parse the file (an absolute path)
+ *   source <n>           followed by n bytes of source to check
+ *   stop                 shut the daemon down
+ *
+ * and its response is the lines of the result (see
+ * BatchValidator.format) followed by a line holding "end". A client
+ * can send any number of requests over one connection. Each
+ * connection is read on a thread of its own, which hands the check of
+ * each request to a fixed pool of worker threads (one per core by
+ * default), so clients that are idle or slow to send a request do not
+ * hold a worker, and the checks of all of the clients share the
+ * workers.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+
+public class ParseDaemon {
+
+  private static final Path DEFAULT_SOCKET =
+    Paths.get(System.getProperty("java.io.tmpdir"), "mypl-parse.sock");
+  private static final long CACHE_BYTES = 256L * 1024 * 1024;
+
+  private Path socket;
+  private ParseCache cache;             // cache of results (or null)
+  private ExecutorService workers;      // check the requests
+  private ExecutorService connections;  // read them (a thread each)
+  private ServerSocketChannel server;
+
+  public static void main(String[] args) {
+    Path socket = DEFAULT_SOCKET;
+    int workers = Runtime.getRuntime().availableProcessors();
+    String cacheDirectory = null;
+    List<String> rest = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-s") && i + 1 < args.length)
+        socket = Paths.get(args[++i]);
+      else if (args[i].equals("-w") && i + 1 < args.length)
+        workers = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-c") && i + 1 < args.length)
+        cacheDirectory = args[++i];
+      else
+        rest.add(args[i]);
+    }
+    String command = rest.isEmpty() ? "" : rest.remove(0);
+    try {
+      if (command.equals("serve")) {
+        ParseCache cache = cacheDirectory == null ? null
+          : new ParseCache(Paths.get(cacheDirectory), CACHE_BYTES);
+        new ParseDaemon(socket, workers, cache).serve();
+      } else if (command.equals("check") && !rest.isEmpty()) {
+        System.exit(check(socket, rest) ? 0 : 1);
+      } else if (command.equals("stop")) {
+        stop(socket);
+      } else {
+        System.out.println("Usage: java ParseDaemon [-s socket] [-w workers] [-c cache] serve\n"
+                           + "       java ParseDaemon [-s socket] check (file | -)...\n"
+                           + "       java ParseDaemon [-s socket] stop");
+        System.exit(1);
+      }
+    } catch (IOException e) {
+      System.out.println("Daemon error on '" + socket + "': " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Create a daemon that will listen on the given socket file and check
+   * the requests of its connections with the given number of worker
+   * threads, using the given cache of results for files (if not null).
+   */
+  public ParseDaemon(Path socket, int workers, ParseCache cache) {
+    this.socket = socket;
+    this.cache = cache;
+    this.workers = Executors.newFixedThreadPool(Math.max(1, workers));
+    connections = Executors.newCachedThreadPool();
+  }
+
+  /**
+   * Listens for connections until a stop request, reading each on its
+   * own thread. Fails if another daemon is using the socket.
+   */
+  public void serve() throws IOException {
+    if (Files.exists(socket)) {
+      if (listening(socket))
+        throw new IOException("a daemon is already running");
+      // the file was left by a daemon that died
+      Files.delete(socket);
+    }
+    server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    server.bind(UnixDomainSocketAddress.of(socket));
+    Thread cleanup = new Thread(this::removeSocket);
+    Runtime.getRuntime().addShutdownHook(cleanup);
+    try {
+      while (true) {
+        SocketChannel client;
+        try {
+          client = server.accept();
+        } catch (ClosedChannelException e) {
+          break;
+        }
+        connections.execute(() -> serve(client));
+      }
+    } finally {
+      connections.shutdown();
+      workers.shutdown();
+      removeSocket();
+      Runtime.getRuntime().removeShutdownHook(cleanup);
+    }
+  }
+
+  /**
+   * Checks the given files (or standard input, for "-") with the daemon
+   * on the given socket, printing their results, and returns whether
+   * they were all ok.
+   */
+  public static boolean check(Path socket, List<String> files) throws IOException {
+    boolean ok = true;
+    try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+      InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+      OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+      for (String file : files) {
+        if (file.equals("-")) {
+          byte[] source = System.in.readAllBytes();
+          out.write(("source " + source.length + "\n").getBytes(StandardCharsets.UTF_8));
+          out.write(source);
+        } else {
+          String path = Paths.get(file).toAbsolutePath().toString();
+          out.write(("check " + path + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        out.flush();
+        boolean first = true;
+        for (String line = readLine(in); !"end".equals(line); line = readLine(in)) {
+          if (line == null)
+            throw new IOException("the daemon closed the connection");
+          if (first && !line.endsWith(": ok"))
+            ok = false;
+          first = false;
+          System.out.println(line);
+        }
+      }
+    }
+    return ok;
+  }
+
+  /**
+   * Asks the daemon on the given socket to shut down.
+   */
+  public static void stop(Path socket) throws IOException {
+    try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+      OutputStream out = Channels.newOutputStream(channel);
+      out.write("stop\n".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+      for (String line = readLine(in); line != null && !line.equals("end"); line = readLine(in))
+        ;
+    }
+  }
+
+
+  /* Helper Functions */
+
+  // answers the requests of a connection until the client closes it
+  // (on the connection's own thread, checking each on a worker)
+  private void serve(SocketChannel client) {
+    try (SocketChannel channel = client) {
+      InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+      OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+      for (String line = readLine(in); line != null; line = readLine(in)) {
+        StringBuilder response = new StringBuilder();
+        if (line.startsWith("check ")) {
+          Path file = Paths.get(line.substring("check ".length()));
+          response.append(check(() -> BatchValidator.validate(file, cache)));
+        } else if (line.startsWith("source ")) {
+          int length = Integer.parseInt(line.substring("source ".length()).trim());
+          if (length < 0)
+            throw new NumberFormatException("negative source length " + length);
+          byte[] source = in.readNBytes(length);
+          if (source.length < length)
+            throw new EOFException("source ended after " + source.length + " of "
+                                   + length + " bytes");
+          SourceBuffer buffer = new SourceBuffer(ByteBuffer.wrap(source));
+          response.append(check(() -> BatchValidator.validate(Paths.get("-"), buffer)));
+        } else if (line.equals("stop")) {
+          server.close();
+        } else {
+          response.append("Unknown request '").append(line).append("'\n");
+        }
+        response.append("end\n");
+        out.write(response.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+      }
+    } catch (IOException | NumberFormatException | RejectedExecutionException e) {
+      // the connection failed, the request was garbled, or the daemon
+      // is stopping: drop it
+    }
+  }
+
+  // runs the given check on a worker, and returns its formatted result
+  private String check(Callable<BatchValidator.Result> check) throws IOException {
+    try {
+      BatchValidator.Result result = workers.submit(check).get();
+      StringBuilder response = new StringBuilder();
+      BatchValidator.format(result, response);
+      return response.toString();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while checking");
+    } catch (ExecutionException e) {
+      throw new IOException("the check failed", e.getCause());
+    }
+  }
+
+  // a line of the stream (without its newline), or null at its end
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b = in.read();
+    if (b < 0)
+      return null;
+    for (; b >= 0 && b != '\n'; b = in.read())
+      line.write(b);
+    return line.toString(StandardCharsets.UTF_8);
+  }
+
+  // whether a daemon is listening on the given socket
+  private static boolean listening(Path socket) {
+    try {
+      SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private void removeSocket() {
+    try {
+      Files.deleteIfExists(socket);
+    } catch (IOException e) {
+      // nothing left to do
+    }
+  }
+}
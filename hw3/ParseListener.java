@@ -0,0 +1,72 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: ParseListener.java
+ *
+ * Receives the events of a parse as they happen (see
+ * Parser.setListener), for tools that only need to know where
+ * constructs start and end and do not need the syntax tree. Nothing
+ * is kept between events, so memory use does not grow with the size
+ * of the input. All of the methods do nothing by default.
+ *
+ * Enter and exit events are always balanced: in diagnostics mode, the
+ * constructs a syntax error cuts short are exited (at the last token
+ * read) before the parser goes on with the next statement.
+ */
+
+
+public interface ParseListener {
+
+  /**
+   * Called at the FUN token of an <fdecl>.
+   */
+  default void enterFunction(Token fun) {
+  }
+
+  /**
+   * Called after the last token (normally END) of an <fdecl>.
+   */
+  default void exitFunction(Token last) {
+  }
+
+  /**
+   * Called at the TYPE token of a <tdecl>.
+   */
+  default void enterType(Token type) {
+  }
+
+  /**
+   * Called after the last token (normally END) of a <tdecl>.
+   */
+  default void exitType(Token last) {
+  }
+
+  /**
+   * Called at the first token of a <bstmt> (including each <vdecl> of
+   * a <tdecl>).
+   */
+  default void enterStatement(Token first) {
+  }
+
+  /**
+   * Called after the last token of a <bstmt>.
+   */
+  default void exitStatement(Token last) {
+  }
+
+  /**
+   * Called for each token the parser reads past (including the tokens
+   * skipped when recovering from an error), in order. A parser over a
+   * token buffer only creates these Tokens for listeners that override
+   * this method.
+   */
+  default void onToken(Token token) {
+  }
+
+  /**
+   * Called after the last token of each outermost <expr> (e.g., the
+   * right hand side of an assignment, but not the operands within it).
+   */
+  default void exitExpression(Token last) {
+  }
+}
@@ -5,7 +5,43 @@
  * 
  * Recursive descent parser implementation for MyPL. The parser
  * requires a lexer. Once a parser is created, the parse() method
- * ensures the given program is syntactically correct. 
+ * ensures the given program is syntactically correct. Each choice
+ * between productions is made from the current token alone, using the
+ * precomputed token sets in ParserTable and switches on the token type.
+ *
+ * The parser uses a constant amount of JVM stack however long or deeply
+ * nested the program is: lists of statements and operator chains are
+ * parsed by loops, and a construct that contains another one (e.g., a
+ * for loop's body or a parenthesized expression) pushes what is left
+ * to parse of it onto an explicit stack of ints before starting on
+ * the inner construct (see run and expr).
+ *
+ * Expressions are parsed by precedence climbing (see ParserTable for
+ * the precedences) in a single loop with an explicit operator stack.
+ *
+ * parse(SyntaxTree) also builds the program's syntax tree into an
+ * arena (see SyntaxTree). Nodes whose parent is not finished yet wait
+ * on an operand stack of node indexes, and a finished construct makes
+ * the nodes above its own its children (see close). parse() builds no
+ * tree.
+ *
+ * A ParseListener (see setListener) is told where functions, types,
+ * statements, and expressions start and end during the parse, so tools
+ * that only need those events need not keep a tree.
+ *
+ * In diagnostics mode (see setDiagnostics) syntax errors are recorded
+ * instead of thrown, and the parser recovers in panic mode: it skips
+ * to the start of the next statement (or an END) and keeps going.
+ * Each error recorded while building a tree becomes an ERROR node at
+ * the token of the error.
+ *
+ * A TopLevelListener (see setTopLevelListener) is told where each
+ * top-level statement of a parse over a token buffer starts, and can
+ * stop the parse there.
+ *
+ * A parser can be reset to parse another input (see reset), keeping
+ * the memory of its stacks, so a server can keep one per thread (see
+ * ParserPool) instead of creating one per request.
  */
 
 import java.sql.Driver;
@@ -13,10 +49,58 @@ import java.util.*;
 
 
 public class Parser {
+
+  /**
+   * Version of the trees and errors the parser produces, to be changed
+   * whenever they change (e.g., it is part of the key of a ParseCache).
+   */
+  public static final int VERSION = 1;
     
   private Lexer lexer; 
+  private TokenPipeline pipeline;       // set when lexing on another thread
+  private TokenBuffer tokens;           // set when parsing a token buffer
+  private TokenCursor cursor;           // position in tokens
   private Token currToken = null;
+  private TokenType currType = null;
   private boolean debug_flag = false;  // set to false to remove debug comments
+  private List<MyPLException> diagnostics; // errors recorded (if set)
+  private int tokensRead;               // tokens advanced past so far
+  private int[] stack = new int[64];    // (kind, argument) pairs left to parse
+  private int top;                      // number of ints on the stack
+  private SyntaxTree tree;              // tree being built (if any)
+  private int[] operands = new int[16]; // nodes waiting for their parent
+  private int operandCount;
+  private ParseListener listener;       // receives parse events (if set)
+  private boolean tokenEvents;          // the listener overrides onToken
+  private Token lastToken;              // token last read past (if made)
+  private int lastIndex = -1;           // else its index in tokens
+  private int scopes;                   // open prefix scopes of the innermost context
+  private int[] events = new int[16];   // kinds of the open listener events
+  private int eventCount;
+  private boolean failedAtEnd;          // an error was found at EOS
+  private TopLevelListener topLevel;    // told of top-level statements (if set)
+  private boolean stopped;              // topLevel stopped the parse
+  private TokenBuffer buffer;           // reused for the lexer's tokens (if set)
+
+  // kinds of stack entries, i.e., the rest of a construct to parse
+  private static final int STMTS = 0;          // next top-level <stmt>
+  private static final int BSTMTS = 1;         // next <bstmt> of a block
+  private static final int FUN_END = 2;        // END of an <fdecl>
+  private static final int BLOCK_END = 3;      // END of a <while> or <for>
+  private static final int COND_TAIL = 4;      // <condt> END of a <cond>
+  private static final int OPERATOR = 5;       // binary operator (ordinal)
+  private static final int PREFIX = 6;         // operand of NOT or NEG
+  private static final int CLOSE_PAREN = 7;    // RPAREN of LPAREN <expr> RPAREN
+  private static final int NEXT_ARGUMENT = 8;  // ( COMMA <expr> )* RPAREN
+  private static final int OPERANDS = 9;       // under each STMTS and BSTMTS
+  private static final int SCOPES = 10;        // prefix scopes outside a call
+
+  // kinds of listener events
+  private static final int FUNCTION_EVENT = 0;
+  private static final int TYPE_EVENT = 1;
+  private static final int STATEMENT_EVENT = 2;
+
+  private static final TokenType[] TOKEN_TYPES = TokenType.values();
   
   /** 
    * Create a new parser over the given lexer.
@@ -25,29 +109,273 @@ public class Parser {
     this.lexer = lexer;
   }
 
+  /** 
+   * Create a new parser over the tokens of the given buffer.
+   */
+  public Parser(TokenBuffer tokens) {
+    this.tokens = tokens;
+    this.cursor = tokens.cursor();
+  }
+
+  /** 
+   * Create a new parser over the tokens [from, to) of the given buffer,
+   * which it parses as a whole program (reading the token at index to
+   * as EOS).
+   */
+  public Parser(TokenBuffer tokens, int from, int to) {
+    this.tokens = tokens;
+    this.cursor = new TokenCursor(tokens, from, to);
+  }
+
+  /**
+   * Create a new parser over the tokens of the given pipeline, whose
+   * lexer runs on its own thread while the parser runs.
+   */
+  public Parser(TokenPipeline pipeline) {
+    this.pipeline = pipeline;
+  }
+
+  /**
+   * Makes the parser ready to parse the tokens of the given lexer,
+   * keeping its memory, its diagnostics list (which the lexer records
+   * its errors in too), and its listeners. If buffer is not null, the
+   * lexer's tokens are read into it (after it is cleared) instead of
+   * into a new buffer, which also saves creating a Token object per
+   * token when no tree is built.
+   */
+  public void reset(Lexer lexer, TokenBuffer buffer) {
+    clear();
+    this.lexer = lexer;
+    this.buffer = buffer;
+    if (diagnostics != null)
+      lexer.setDiagnostics(diagnostics);
+  }
+
+  /**
+   * Makes the parser ready to parse the tokens of the given buffer,
+   * keeping its memory, its diagnostics list, and its listeners.
+   */
+  public void reset(TokenBuffer tokens) {
+    clear();
+    this.tokens = tokens;
+    this.cursor = tokens.cursor();
+  }
+
+  /**
+   * Makes the parser ready to parse the tokens [from, to) of the given
+   * buffer as a whole program (see Parser(TokenBuffer, int, int)),
+   * keeping its memory, its diagnostics list, and its listeners.
+   */
+  public void reset(TokenBuffer tokens, int from, int to) {
+    clear();
+    this.tokens = tokens;
+    this.cursor = new TokenCursor(tokens, from, to);
+  }
+
+  /**
+   * Records errors (of both the parser and its lexer) in the given
+   * list instead of throwing them, so a single parse finds all of the
+   * errors in the program.
+   */
+  public void setDiagnostics(List<MyPLException> diagnostics) {
+    this.diagnostics = diagnostics;
+    if (lexer != null)
+      lexer.setDiagnostics(diagnostics);
+    if (pipeline != null)
+      pipeline.recordErrors();
+  }
+
+  /**
+   * Sends the parse events to the given listener. Token objects are
+   * only created for the events the listener receives, and for each
+   * token read only if it overrides onToken.
+   */
+  public void setListener(ParseListener listener) {
+    this.listener = listener;
+    tokenEvents = listener != null && overridesOnToken(listener);
+  }
+
+  /**
+   * Tells the given listener where each top-level statement of a parse
+   * over a token buffer starts, and stops the parse at the first one it
+   * returns true for (see TopLevelListener).
+   */
+  public void setTopLevelListener(TopLevelListener topLevel) {
+    this.topLevel = topLevel;
+  }
+
+  /**
+   * Returns true if the parse found an error at the end of the tokens
+   * (EOS), i.e., the program ended inside a construct.
+   */
+  public boolean failedAtEnd() {
+    return failedAtEnd;
+  }
+
   /**
    * Ensures program is syntactically correct. On error, throws a
-   * MyPLException.
+   * MyPLException (unless collecting diagnostics).
    */
   public void parse() throws MyPLException
   {
-    advance();
-    stmts();
-    eat(TokenType.EOS, "expecting end of file");
+    try {
+      start();
+      program();
+    } finally {
+      finish();
+    }
+  }
+
+
+  /**
+   * Ensures program is syntactically correct and builds its syntax
+   * tree into the given tree, which is reset first (so one tree can be
+   * reused for many parses). On error, throws a MyPLException (unless
+   * collecting diagnostics, where each failed statement becomes an
+   * ERROR node).
+   */
+  public SyntaxTree parse(SyntaxTree tree) throws MyPLException
+  {
+    this.tree = tree;
+    try {
+      start();
+      tree.reset(tokens);
+      program();
+    } finally {
+      finish();
+    }
+    return tree;
+  }
+
+
+  /**
+   * Parses a single expression (the whole input) and returns its tree.
+   * On error, throws a MyPLException.
+   */
+  public Expr parseExpression() throws MyPLException
+  {
+    tree = new SyntaxTree();
+    try {
+      start();
+      tree.reset(tokens);
+      expr();
+      eat(TokenType.EOS, "expecting end of file");
+    } finally {
+      finish();
+    }
+    tree.setRoot(operands[0]);
+    return tree.expr(tree.root());
   }
 
 
   /* Helper Functions */
 
+  // forgets the input and the state of the last parse
+  private void clear() {
+    lexer = null;
+    pipeline = null;
+    tokens = null;
+    cursor = null;
+    buffer = null;
+    currToken = null;
+    currType = null;
+    tokensRead = 0;
+    top = 0;
+    tree = null;
+    operandCount = 0;
+    lastToken = null;
+    lastIndex = -1;
+    eventCount = 0;
+    failedAtEnd = false;
+    stopped = false;
+  }
+
+  // reads the first token; a parser building a tree over a lexer (or
+  // given a buffer to reuse) reads the tokens into a buffer, which the
+  // tree's nodes refer to
+  private void start() throws MyPLException {
+    if (pipeline != null) {
+      pipeline.start();
+      nextBatch();
+    } else if (lexer != null && buffer != null) {
+      tokens = lexer.tokenBuffer(buffer);
+      cursor = tokens.cursor();
+      lexer.nextTokenInto(tokens);
+    } else if (lexer != null && tree != null) {
+      tokens = lexer.tokenBuffer();
+      cursor = tokens.cursor();
+      lexer.nextTokenInto(tokens);
+    }
+    if (cursor != null)
+      currType = cursor.type();
+    else
+      advance();
+  }
+
   // sets current token to next token in stream
   private void advance() throws MyPLException {
-    currToken = lexer.nextToken();
+    tokensRead++;
+    if (listener != null && currType != null) {
+      if (cursor != null) {
+        lastToken = null;
+        lastIndex = cursor.index();
+      } else {
+        lastToken = currToken;
+      }
+      if (tokenEvents)
+        listener.onToken(lastToken());
+    }
+    if (cursor != null) {
+      if (pipeline != null && currType != TokenType.EOS
+          && cursor.index() == tokens.size() - 1) {
+        nextBatch();
+      } else {
+        if (lexer != null && currType != TokenType.EOS)
+          lexer.nextTokenInto(tokens);
+        cursor.next();
+      }
+      currType = cursor.type();
+    } else {
+      currToken = lexer.nextToken();
+      currType = currToken.type();
+    }
+  }
+
+  // moves to the first token of the pipeline's next batch; a parser
+  // building a tree copies the batches into one buffer (which the
+  // tree's nodes refer to), otherwise it reads each batch in place
+  private void nextBatch() throws MyPLException {
+    if (tree == null && listener != null)
+      lastToken();   // (the batch is reused once the next is taken)
+    TokenBuffer batch = pipeline.take();
+    if (tree == null) {
+      tokens = batch;
+      cursor = batch.cursor();
+    } else if (tokens == null) {
+      tokens = new TokenBuffer(batch.source(), batch.symbolTable());
+      tokens.append(batch, 0, batch.size(), 0, 0);
+      cursor = tokens.cursor();
+    } else {
+      tokens.append(batch, 0, batch.size(), 0, 0);
+      tokens.setSource(batch.source());  // (which holds the earlier batches too)
+      cursor.next();
+    }
+  }
+
+  // stops the pipeline's lexer (if any) and, in diagnostics mode, adds
+  // the rest of its errors
+  private void finish() {
+    if (pipeline == null)
+      return;
+    pipeline.close();
+    if (diagnostics != null)
+      pipeline.errorsThrough(Long.MAX_VALUE, diagnostics);
   }
 
   // checks that current token matches given type and advances,
   // otherwise creates an error with the given error message
   private void eat(TokenType t, String errmsg) throws MyPLException {
-    if (currToken.type() == t)
+    if (currType == t)
       advance();
     else
       error(errmsg);
@@ -56,12 +384,218 @@ public class Parser {
   // generates an error message from the given message and throws a
   // corresponding MyPLException
   private void error(String errmsg) throws MyPLException {
+    if (currType == TokenType.EOS)
+      failedAtEnd = true;
+    currToken = current();
     String s = errmsg + " found '" + currToken.lexeme() + "'";
     int row = currToken.row();
     int col = currToken.column();
     throw new MyPLException("Parser", errmsg, row, col);
   }
 
+  // the current token (created on demand when parsing a token buffer)
+  private Token current() {
+    return cursor != null ? cursor.token() : currToken;
+  }
+
+  // the token last read past (created on demand when parsing a token
+  // buffer), or null if there is none
+  private Token lastToken() {
+    if (lastToken == null && lastIndex >= 0)
+      lastToken = tokens.token(lastIndex);
+    return lastToken;
+  }
+
+  // true if the listener's class has its own onToken
+  private static boolean overridesOnToken(ParseListener listener) {
+    try {
+      return listener.getClass().getMethod("onToken", Token.class).getDeclaringClass()
+        != ParseListener.class;
+    } catch (NoSuchMethodException e) {
+      return true;
+    }
+  }
+
+  // records the error of a failed statement and skips to where the
+  // next statement can start (skipping at least one token); rethrows
+  // the error when not collecting diagnostics
+  private void recover(MyPLException e, int startTokens) throws MyPLException {
+    if (diagnostics == null)
+      throw e;
+    if (pipeline != null)
+      pipeline.errorsThrough(tokensRead, diagnostics);
+    diagnostics.add(e);
+    if (tokensRead == startTokens && currType != TokenType.EOS)
+      advance();
+    while (currType != TokenType.EOS && currType != TokenType.END
+           && !ParserTable.contains(ParserTable.STATEMENT_START, currType))
+      advance();
+  }
+
+  // true if the top-level listener (if any) stops the parse before the
+  // top-level statement at the current token
+  private boolean stopsAt() {
+    if (topLevel == null || cursor == null)
+      return false;
+    stopped = topLevel.atStatement(cursor.index(), tree != null ? tree.size() : -1);
+    return stopped;
+  }
+
+  // pushes a stack entry of the given kind
+  private void push(int kind, int argument) {
+    if (top + 2 > stack.length)
+      stack = Arrays.copyOf(stack, stack.length * 2);
+    stack[top++] = kind;
+    stack[top++] = argument;
+  }
+
+  // pushes the entries for the next statement of a list (STMTS or
+  // BSTMTS): the operandCount and the tokensRead where it starts
+  private void pushList(int kind) {
+    push(OPERANDS, operandCount);
+    push(kind, tokensRead);
+  }
+
+  // when building a tree, adds a node for the given token (an index in
+  // tokens, or -1) and pushes it onto the operand stack
+  private void node(int kind, int token) {
+    if (tree == null)
+      return;
+    if (operandCount == operands.length)
+      operands = Arrays.copyOf(operands, operandCount * 2);
+    operands[operandCount++] = tree.add(kind, token);
+  }
+
+  // when building a tree, makes the operands above the one at base its
+  // children, leaving it on top of the operand stack
+  private void close(int base) {
+    if (tree == null)
+      return;
+    tree.link(operands[base], operands, base + 1, operandCount);
+    operandCount = base + 1;
+  }
+
+  // when there is a listener, sends the enter event of the given kind
+  // at the current token
+  private void enterEvent(int kind) {
+    if (listener == null)
+      return;
+    if (eventCount == events.length)
+      events = Arrays.copyOf(events, eventCount * 2);
+    events[eventCount++] = kind;
+    Token token = current();
+    if (kind == FUNCTION_EVENT)
+      listener.enterFunction(token);
+    else if (kind == TYPE_EVENT)
+      listener.enterType(token);
+    else
+      listener.enterStatement(token);
+  }
+
+  // when there is a listener, sends the exit event of the innermost
+  // open event at the last token read
+  private void exitEvent() {
+    if (listener == null)
+      return;
+    int kind = events[--eventCount];
+    if (kind == FUNCTION_EVENT)
+      listener.exitFunction(lastToken());
+    else if (kind == TYPE_EVENT)
+      listener.exitType(lastToken());
+    else
+      listener.exitStatement(lastToken());
+  }
+
+  // the index of the current token in tokens (or -1 if the tokens are
+  // not buffered)
+  private int tokenIndex() {
+    return cursor != null ? cursor.index() : -1;
+  }
+
+  // parses the rest of the statements on the stack above base; a
+  // failed statement unwinds the stack to the innermost list of
+  // statements (STMTS or BSTMTS), which records the error and recovers
+  // (and replaces the statement's nodes with an ERROR node); the
+  // argument of FUN_END, BLOCK_END, and COND_TAIL entries is the
+  // operand count below the node of their statement
+  private void run(int base) throws MyPLException {
+    while (top > base) {
+      try {
+        top -= 2;
+        int argument = stack[top + 1];
+        switch (stack[top]) {
+          case STMTS:
+            top -= 2;
+            if (currType != TokenType.EOS && !stopsAt()) {
+              pushList(STMTS);
+              stmt();
+            }
+            break;
+          case BSTMTS:
+            top -= 2;
+            if (isBstmt(currType)) {
+              pushList(BSTMTS);
+              bstmt();
+            }
+            break;
+          case FUN_END:
+            eat(TokenType.END, "Expecting reserved word END");
+            close(argument);
+            exitEvent();
+            break;
+          case BLOCK_END:
+            eat(TokenType.END, "Expecting END token");
+            close(argument);
+            exitEvent();
+            break;
+          case COND_TAIL:
+            if(currType == TokenType.IF){
+              condt();
+            } else {
+              error("Need a conditional tail here");
+            }
+            eat(TokenType.END, "Expecting END token");
+            close(argument);
+            exitEvent();
+            break;
+        }
+      } catch (MyPLException e) {
+        int i = top;
+        while (i > base && stack[i - 2] != STMTS && stack[i - 2] != BSTMTS)
+          i -= 2;
+        if (i == base || diagnostics == null) {
+          top = base;
+          throw e;
+        }
+        int kind = stack[i - 2];
+        int startTokens = stack[i - 1];
+        operandCount = stack[i - 3];
+        top = i - 4;
+        node(SyntaxTree.ERROR, tokenIndex());
+        exitEvents(i - 4);
+        recover(e, startTokens);
+        // a stray END cannot close anything at the top level
+        if (kind == STMTS && currType == TokenType.END)
+          advance();
+        pushList(kind);
+      }
+    }
+  }
+
+  // exits the listener events of the constructs cut short by an error,
+  // i.e., all but those of the blocks whose END is on the stack below
+  // the given index
+  private void exitEvents(int index) {
+    if (listener == null)
+      return;
+    int open = 0;
+    for (int i = 0; i < index; i += 2)
+      if (stack[i] == FUN_END || stack[i] == BLOCK_END || stack[i] == COND_TAIL)
+        open++;
+    while (eventCount > open)
+      exitEvent();
+  }
+
   // function to print a debug string if the debug_flag is set for
   // helping to diagnose/test the parser
   private void debug(String msg) {
@@ -75,84 +609,74 @@ public class Parser {
   //a token unless it can be handled by a simple if statement
 
 
+  // <program> ::= <stmts> EOS
+  private void program() throws MyPLException {
+    node(SyntaxTree.PROGRAM, -1);
+    stmts();
+    if (!stopped)
+      eat(TokenType.EOS, "expecting end of file");
+    close(0);
+    if (tree != null)
+      tree.setRoot(operands[0]);
+  }
+
   // <stmts> ::= <stmt> <stmts> | epsilon
   private void stmts() throws MyPLException {
     debug("<stmts>");
-    if(currToken.type() != TokenType.EOS){
-      stmt();
-      stmts();
-    }
+    int base = top;
+    pushList(STMTS);
+    run(base);
   }
 ////////////////////////////////////////////////////////////////////////////
 //all of my helper functions
 
    //helper function to determine if something is an expression
   private boolean isExpression(TokenType token) {
-    Set<TokenType> b = Set.of(TokenType.NOT, TokenType.LPAREN, TokenType.NIL, 
-    TokenType.NEW, TokenType.NEG, TokenType.ID);
-    if(isPval(token) || b.contains(token)){
-      return true;
-    } else {
-      return false;
-    }
+    return ParserTable.contains(ParserTable.EXPR, token);
   }
 
   //helper function to determine if something is an rval in an expression
   private boolean isRval(TokenType token) {
-    Set<TokenType> s = Set.of(TokenType.NIL, TokenType.NEW, TokenType.NEG, TokenType.ID);
-    if(isPval(token) || s.contains(token)){
-      return true;
-    } else {
-      return false;
-    }
+    return ParserTable.contains(ParserTable.RVALUE, token);
   }
 
    //helper function for types
   private boolean isDtype(TokenType token){
-    Set<TokenType> s = Set.of(TokenType.INT_TYPE, TokenType.DOUBLE_TYPE, TokenType.STRING_TYPE,
-    TokenType.BOOL_TYPE, TokenType.CHAR_TYPE);
-    return(s.contains(token));
+    return ParserTable.contains(ParserTable.DTYPE, token);
   }
 
   //helper function for bstmt
   private boolean isBstmt(TokenType token){
-    Set<TokenType> s = Set.of(TokenType.VAR, TokenType.SET, 
-    TokenType.IF, TokenType.FOR, TokenType.RETURN);
-    if(isExpression(currToken.type()) || s.contains(token)){
-      return true;
-    } else {
-      return false;
-    }
+    return ParserTable.contains(ParserTable.BSTMT, token);
   }
 
    //helper function for determing if token is an operator
   private boolean isOperator(TokenType token) { 
-    Set<TokenType> s = Set.of(TokenType.PLUS, TokenType.MINUS, TokenType.DIVIDE, TokenType.MULTIPLY, 
-    TokenType.MODULO, TokenType.AND, TokenType.OR, TokenType.EQUAL, TokenType.LESS_THAN, 
-    TokenType.LESS_THAN_EQUAL, TokenType.GREATER_THAN, TokenType.GREATER_THAN_EQUAL, TokenType.NOT_EQUAL);
-    return s.contains(token);
+    return ParserTable.contains(ParserTable.OPERATOR, token);
   }
 
    //helper function for pvalues
   private boolean isPval(TokenType token) { 
-    Set<TokenType> s = Set.of(TokenType.INT_VAL,TokenType.DOUBLE_VAL, 
-    TokenType.BOOL_VAL, TokenType.STRING_VAL, TokenType.CHAR_VAL);
-    return s.contains(token);
+    return ParserTable.contains(ParserTable.PVAL, token);
   }
 ////////////////////////////////////////////////////////////////////////
 
   //<stmt> ::= <tdecl> | <fdecl> | <bstms>
   private void stmt() throws MyPLException {
     debug("<stmt>");
-    if(currToken.type() == TokenType.TYPE || isDtype(currToken.type())){
-      tdecl();
-    }
-    else if(currToken.type() == TokenType.FUN){
-      fdecl();
-    } else if (isBstmt(currToken.type())){
-      bstmt();
-    } else {
-      error("Poor sstatement declaration");
+    switch (currType) {
+      case TYPE: case INT_TYPE: case DOUBLE_TYPE: case STRING_TYPE:
+      case BOOL_TYPE: case CHAR_TYPE:
+        tdecl();
+        break;
+      case FUN:
+        fdecl();
+        break;
+      default:
+        if (isBstmt(currType))
+          bstmt();
+        else
+          error("Poor sstatement declaration");
     }
   }
 
@@ -160,98 +684,120 @@ public class Parser {
   // <bstmts> ::= <bstmt> <bstmts> | epsilon
   private void bstmts() throws MyPLException {
     debug("<bstmts>");
-    if(isBstmt(currToken.type())){
-      bstmt();
-      bstmts();
-    }
+    int base = top;
+    pushList(BSTMTS);
+    run(base);
   }
   
   //<bstmt ::= <vdecl> | <assign> | <cond> | <while> | <for> | <expr> | <exit>
+  //(the statements with blocks are exited at their END, see run)
   private void bstmt() throws MyPLException {
     debug("<bstmt>");
-    if(currToken.type() == TokenType.VAR){
-      vdecl();
-    } else if (currToken.type() == TokenType.SET){
-      assign();
-    } else if (currToken.type() == TokenType.IF){
-      cond();
-    } else if (currToken.type() == TokenType.WHILE){
-      while_stmt();
-    } else if (currToken.type() == TokenType.FOR){
-      for_stmt();
-    } else if (isExpression(currToken.type())){
-      expr();
-    } else if (currToken.type() == TokenType.RETURN){
-      exit();
-    } else {
-      error("Invalid bstmt");
+    enterEvent(STATEMENT_EVENT);
+    switch (currType) {
+      case VAR: vdecl(); break;
+      case SET: assign(); break;
+      case IF: cond(); return;
+      case WHILE: while_stmt(); return;
+      case FOR: for_stmt(); return;
+      case RETURN: exit(); break;
+      default:
+        if (isExpression(currType))
+          expr();
+        else
+          error("Invalid bstmt");
     }
+    exitEvent();
   }
 
   //<tdecl> ::= TYPE ID <vdecl> END
   private void tdecl() throws MyPLException {
     debug("<tdecl>");
+    enterEvent(TYPE_EVENT);
+    int base = operandCount;
+    node(SyntaxTree.TYPE_DECL, tokenIndex());
     eat(TokenType.TYPE, "Expecting Type");
+    node(SyntaxTree.NAME, tokenIndex());
     eat(TokenType.ID, "Expecting ID");
     vdecls();
     eat(TokenType.END, "Expecting reserved word END");
+    close(base);
+    exitEvent();
   }
 
   //<fdecl> ::= FUN ( <dtype> | NIL ) ID LPAREN <params> RPAREN <bstmts> END
   private void fdecl() throws MyPLException {
     debug("<fdecl>");
+    enterEvent(FUNCTION_EVENT);
+    int base = operandCount;
+    node(SyntaxTree.FUN_DECL, tokenIndex());
     eat(TokenType.FUN, "Expecting function declaration");
-    if(currToken.type() ==  TokenType.NIL){
+    if(currType ==  TokenType.NIL){
+      node(SyntaxTree.TYPE, tokenIndex());
       eat(TokenType.NIL, "Expecting Nil token");
-    } else if (isDtype(currToken.type())) {
+    } else if (isDtype(currType)) {
       dtype();
     } else {
       error("invalid function type");
     }
+    node(SyntaxTree.NAME, tokenIndex());
     eat(TokenType.ID, "Expecting ID");
     eat(TokenType.LPAREN, "Expecting Left Parens");
     params();
     eat(TokenType.RPAREN, "Expecting Right Parens");
-    if (isBstmt(currToken.type())){
+    if (isBstmt(currType)){
+      push(FUN_END, base);
       bstmt();
     } else {
       error("Need a bstmt here");
     }
-    eat(TokenType.END, "Expecting reserved word END");
   }
 
   //<vdecls> ::= <vdecl> <vdecls> | epsilon
   private void vdecls() throws MyPLException {
     debug("<vdecls>");
-    vdecl();
-    vdecls();
+    for (;;) {
+      enterEvent(STATEMENT_EVENT);
+      vdecl();
+      exitEvent();
+    }
   }
 
   //<params> ::= <dtype> ID ( COMMA <dtype> ID ) | epsilon
   private void params() throws MyPLException {
     //checks to see if it will be a function without parameters
     debug("<params>");
-    if (isDtype(currToken.type()) || currToken.type() == TokenType.ID){
+    if (isDtype(currType) || currType == TokenType.ID){
+      int param = operandCount;
+      node(SyntaxTree.PARAM, tokenIndex());
       dtype();
+      node(SyntaxTree.NAME, tokenIndex());
       eat(TokenType.ID, "Expecting variable ID");
+      close(param);
       //loop through to get every parameter variable
-      while(currToken.type() == TokenType.COMMA){
+      while(currType == TokenType.COMMA){
         eat(TokenType.COMMA, "Expecting comma");
-        if (isDtype(currToken.type()) || currToken.type() == TokenType.ID){
+        param = operandCount;
+        node(SyntaxTree.PARAM, tokenIndex());
+        if (isDtype(currType) || currType == TokenType.ID){
           dtype();
         } else {
           error("Need a data type or ID here");
         }
+        node(SyntaxTree.NAME, tokenIndex());
         eat(TokenType.ID, "expecting variable ID");
+        close(param);
       }
     }
   }
 
   //<dtype> ::= INT_TYPE | DOUBLE_TYPE | BOOL_TYPE | CHAR_TYPE | STRING_TYPE | ID
   private void dtype() throws MyPLException {
-    if(isDtype(currToken.type())){
+    if(isDtype(currType)){
+      node(SyntaxTree.TYPE, tokenIndex());
       advance();
-    } else if(currToken.type() == TokenType.ID){
+    } else if(currType == TokenType.ID){
+      node(SyntaxTree.TYPE, tokenIndex());
       advance();
     } else {
       error("was expecting either an int, double, bool, char, string, or id");
@@ -260,22 +806,28 @@ public class Parser {
 
   //<exit> ::= RETURN ( <expr> | epsilon )
   private void exit() throws MyPLException {
+    int base = operandCount;
+    node(SyntaxTree.RETURN, tokenIndex());
     eat(TokenType.RETURN, "Expecting Return statement");
-    if(isExpression(currToken.type())){
+    if(isExpression(currType)){
       expr();
     }
+    close(base);
   }
 
   //<vdecl> ::= VAR ( <dtype> | epsilon ) ID ASSIGN <expr>
   //handling epsilon here with if statement
   private void vdecl() throws MyPLException {
+    int base = operandCount;
+    node(SyntaxTree.VAR_DECL, tokenIndex());
     eat(TokenType.VAR, "Expecting toke VAR");
-    if (isDtype(currToken.type())){
+    if (isDtype(currType)){
       dtype();
-    } else if (currToken.type() == TokenType.ID){
+    } else if (currType == TokenType.ID){
+      node(SyntaxTree.NAME, tokenIndex());
       eat(TokenType.ID, "Expecting ID token");
       eat(TokenType.ASSIGN, "Expecting assignment token");
-      if(isExpression(currToken.type())){
+      if(isExpression(currType)){
         expr();
       } else {
         error("Need an expression here");
@@ -283,79 +835,85 @@ public class Parser {
     } else {
       error("Either need a dval or ID token here");
     }
+    close(base);
   }
 
   //<assign> ::= SET <lvalue> ASSIGN <expr>
   private void assign() throws MyPLException {
+    int base = operandCount;
+    node(SyntaxTree.ASSIGN, tokenIndex());
     eat(TokenType.SET, "Expecting SET token");
-    if (currToken.type() == TokenType.ID){
+    if (currType == TokenType.ID){
       lvalue();
     } else {
       error("Expecting an lvalue here");
     }
     eat(TokenType.ASSIGN, "Expecting assignment token");
-    if(isExpression(currToken.type())){
+    if(isExpression(currType)){
       expr();
     } else {
       error("Need an expression here");
     }
+    close(base);
   }
 
   //<lvalue> ::= ID (DOT ID)*
   private void lvalue() throws MyPLException {
+    int base = operandCount;
+    node(SyntaxTree.PATH, tokenIndex());
+    node(SyntaxTree.NAME, tokenIndex());
     eat(TokenType.ID, "Expecting ID token");
-    if(currToken.type() == TokenType.DOT){
-      while(currToken.type() == TokenType.DOT){
+    if(currType == TokenType.DOT){
+      while(currType == TokenType.DOT){
         eat(TokenType.DOT, "Expecting DOT token");
+        node(SyntaxTree.NAME, tokenIndex());
         eat(TokenType.ID, "Expecting ID token");
       }
     }
+    close(base);
   }
 
   //<cond> ::= IF <expr> THEN <bstmts> <condt> END
   private void cond() throws MyPLException {
+    int base = operandCount;
+    node(SyntaxTree.COND, tokenIndex());
     eat(TokenType.IF, "Expecting IF token");
-    if(isExpression(currToken.type())){
+    if(isExpression(currType)){
       expr();
     } else {
       error("Need an expression here");
     }
     eat(TokenType.THEN, "Expecting THEN token");
-    if(isBstmt(currToken.type())){
+    if(isBstmt(currType)){
+      push(COND_TAIL, base);
       bstmt();
     } else {
       error("Need a bstmt here");
     }
-    if(currToken.type() == TokenType.IF){
-      condt();
-    } else {
-      error("Need a conditional tail here");
-    }
-    eat(TokenType.END, "Expecting END token");
   }
 
   //<condt> ::= ELIF <expr> THEN <bstmts> <condt> | ELSE <bstmts> | epsilon
   private void condt() throws MyPLException {
-    if(currToken.type() == TokenType.ELIF){
+    if(currType == TokenType.ELIF){
       eat(TokenType.ELIF, "Expecting ELIF token");
-      if(isExpression(currToken.type())){
+      if(isExpression(currType)){
         expr();
       } else {
         error("Need an expression here");
       }
       eat(TokenType.THEN, "Expecting THEN token");
-      if(isBstmt(currToken.type())){
+      if(isBstmt(currType)){
         bstmts();
       } else {
         error("Need an bstmt here");
       }
-      if (currToken.type() == TokenType.IF){
+      if (currType == TokenType.IF){
         condt();
       } else {
         error("Need a conditional tail here");
       }
     }
-    else if(currToken.type() == TokenType.ELSE){
+    else if(currType == TokenType.ELSE){
       eat(TokenType.ELSE, "Expecting ELSE token");
       bstmts();
     }
@@ -363,116 +921,209 @@ public class Parser {
 
   //<while> ::= WHILE <expr> DO <bstmts> END
   private void while_stmt() throws MyPLException {
+    int base = operandCount;
+    node(SyntaxTree.WHILE, tokenIndex());
     eat(TokenType.WHILE, "Expecting WHILE token");
-    if(isExpression(currToken.type())){
+    if(isExpression(currType)){
       expr();
     } else {
       error("Need an expression here");
     }
     eat(TokenType.DO, "Expecting DO token");
-    if(isBstmt(currToken.type())){
-      bstmts();
+    if(isBstmt(currType)){
+      push(BLOCK_END, base);
+      pushList(BSTMTS);
     } else {
       error("Need a bstmt here");
     }
-    eat(TokenType.END, "Expecting END token");
   }
 
   //<for> ::= FOR ID ASSIGN <expr> TO <expr> DO <bstmts> END
   private void for_stmt() throws MyPLException {
+    int base = operandCount;
+    node(SyntaxTree.FOR, tokenIndex());
     eat(TokenType.FOR, "Expecting FOR token");
+    node(SyntaxTree.NAME, tokenIndex());
     eat(TokenType.ID, "Expecting ID token");
     eat(TokenType.ASSIGN, "Expecting ASSIGN token");
-    if(isExpression(currToken.type())){
+    if(isExpression(currType)){
       expr();
     } else {
       error("Need an expression here");
     }
     eat(TokenType.TO, "Expecting TO token");
-    if(isExpression(currToken.type())){
+    if(isExpression(currType)){
       expr();
     } else {
       error("Need an expression here");
     }
     eat(TokenType.DO, "Expecting DO token");
-    if(isBstmt(currToken.type())){
-      bstmts();
+    if(isBstmt(currType)){
+      push(BLOCK_END, base);
+      pushList(BSTMTS);
     } else {
       error("Need a bstmt here");
     }
-    eat(TokenType.END, "Expecting END token");
   }
 
-  //<expr> ::= ( <rvalue> | NOT <expr> | LPAREN <expr> RPAREN ) ( <operator> <expr> | epsilon )
+  //<expr> ::= ( <rvalue> | NOT <expr> | LPAREN <expr> RPAREN ) ( <operator> <expr> | epsilon )
+  //parsed by precedence climbing: binary and prefix operators wait on
+  //the stack until an operator of lower or equal precedence (or the end
+  //of the operator chain) shows that their right operand is complete,
+  //and parentheses and call arguments are contexts on the stack that
+  //end with the chain inside them. In the grammar each NOT or NEG
+  //<expr> may be followed by an operator of its own, which matters
+  //only after an empty <expr>: an operator there is accepted once per
+  //prefix operator read in the same context (scopes counts them)
   private void expr() throws MyPLException {
-    if(isExpression(currToken.type())){
-      if(currToken.type() == TokenType.LPAREN){
-        advance();
-        expr();
-        eat(TokenType.RPAREN, "Expecting RPAREN token");
-      } else if (currToken.type() == TokenType.NOT){
-        advance();
-        expr();
-      } else if (isRval(currToken.type())){
-        rvalue();
-      } else {
-        error("Invalid expression");
+    int base = top;
+    scopes = 0;
+    while (true) {
+      boolean empty = !operand();
+      if (empty && scopes > 0 && isOperator(currType)) {
+        scopes--;
+        empty = false;
       }
-      //now utilize helper function
-      if(isOperator(currToken.type())){
-        advance();
-        expr();
+      // the operator chain goes on, or ends at the innermost context
+      while (true) {
+        if (!empty && isOperator(currType)) {
+          reduce(base, ParserTable.precedence(currType));
+          push(OPERATOR, currType.ordinal());
+          node(SyntaxTree.BINARY, tokenIndex());
+          advance();
+          break;
+        }
+        reduce(base, 0);
+        if (top == base) {
+          if (listener != null)
+            listener.exitExpression(lastToken());
+          return;
+        }
+        top -= 2;
+        int kind = stack[top];
+        int argument = stack[top + 1];
+        if (kind == CLOSE_PAREN) {
+          eat(TokenType.RPAREN, "Expecting RPAREN token");
+          scopes = argument;
+        } else if(currType == TokenType.COMMA){
+          advance();
+          push(NEXT_ARGUMENT, argument);
+          scopes = 0;
+          break;
+        } else {
+          eat(TokenType.RPAREN, "Expecting RPAREN token");
+          close(argument);
+          top -= 2;
+          scopes = stack[top + 1];
+        }
+        empty = false;
       }
     }
   }
 
-  //<rvalue> ::= <pval> | NIL | NEW ID | <idrval> | NEG <expr>
-  private void rvalue() throws MyPLException {
-    if(currToken.type() == TokenType.NIL){
-      advance();
-    }
-    else if(currToken.type() == TokenType.NEW){
-      advance();
-      eat(TokenType.ID, "Expecting ID token");
+  //reads the prefix operators and parentheses that start an operand,
+  //pushing them as contexts, and then its <rvalue> (or, for a call, its
+  //name and the start of its first argument); returns false for an
+  //empty <expr>
+  private boolean operand() throws MyPLException {
+    while(isExpression(currType)){
+      switch (currType) {
+        case LPAREN:
+          advance();
+          push(CLOSE_PAREN, scopes);
+          scopes = 0;
+          break;
+        case NOT:
+        case NEG:
+          push(PREFIX, currType.ordinal());
+          scopes++;
+          node(SyntaxTree.UNARY, tokenIndex());
+          advance();
+          break;
+        default:
+          if (!isRval(currType))
+            error("Invalid expression");
+          if (!rvalue())
+            return true;
+      }
     }
-    else if(currToken.type() == TokenType.NEG){
-      advance();
-      expr();
+    node(SyntaxTree.EMPTY, -1);
+    return false;
+  }
+
+  //pops the binary and prefix operators above base (and below any
+  //context) whose precedence is at least the given one, combining
+  //their operands
+  private void reduce(int base, int precedence) {
+    while (top > base && (stack[top - 2] == OPERATOR || stack[top - 2] == PREFIX)
+           && ParserTable.precedence(TOKEN_TYPES[stack[top - 1]]) >= precedence) {
+      top -= 2;
+      if (stack[top] == PREFIX) {
+        // the operands operator, operand become operator(operand)
+        close(operandCount - 2);
+      } else if (tree != null) {
+        // the operands left, operator, right become operator(left, right)
+        int operator = operands[operandCount - 2];
+        operands[operandCount - 2] = operands[operandCount - 3];
+        operands[operandCount - 3] = operator;
+        close(operandCount - 3);
+      }
     }
-    else if(isPval(currToken.type())){
-      advance();
-    } else if (currToken.type() == TokenType.ID){
-      idrval();
-    } else {
-      error("Invalid right hand side value");
+  }
+
+  //<rvalue> ::= <pval> | NIL | NEW ID | <idrval> | NEG <expr>
+  //(NEG is read by operand as a prefix operator); returns true if a
+  //call's first argument follows
+  private boolean rvalue() throws MyPLException {
+    switch (currType) {
+      case NEW:
+        advance();
+        node(SyntaxTree.NEW, tokenIndex());
+        eat(TokenType.ID, "Expecting ID token");
+        return false;
+      case ID:
+        return idrval();
+      case NIL: case INT_VAL: case DOUBLE_VAL: case BOOL_VAL: case STRING_VAL: case CHAR_VAL:
+        node(SyntaxTree.VALUE, tokenIndex());
+        advance();
+        return false;
+      default:
+        error("Invalid right hand side value");
+        return false;
     }
   }
 
   //<idrval> ::= ID ( DOT ID )* | ID LPAREN <exprlist> RPAREN
-  private void idrval() throws MyPLException {
+  //<exprlist> ::= <expr> ( COMMA <expr> )* | epsilon
+  //a call with arguments pushes its node (under its arguments) and
+  //returns true, and expr finishes the call
+  private boolean idrval() throws MyPLException {
+    int id = tokenIndex();
     eat(TokenType.ID, "Expecting ID token");
-    if(currToken.type() == TokenType.DOT){
-      while(currToken.type() == TokenType.DOT){
+    if(currType == TokenType.DOT){
+      int base = operandCount;
+      node(SyntaxTree.PATH, id);
+      node(SyntaxTree.NAME, id);
+      while(currType == TokenType.DOT){
         advance();
+        node(SyntaxTree.NAME, tokenIndex());
         eat(TokenType.ID, "Expecting ID token");
       }
-    } else if (currToken.type() == TokenType.LPAREN) {
+      close(base);
+    } else if (currType == TokenType.LPAREN) {
       eat(TokenType.LPAREN, "Expecting LPAREN token");
-      exprlist();
+      if(isExpression(currType)){
+        push(SCOPES, scopes);
+        push(NEXT_ARGUMENT, operandCount);
+        scopes = 0;
+        node(SyntaxTree.CALL, id);
+        return true;
+      }
       eat(TokenType.RPAREN, "Expecting RPAREN token");
+      node(SyntaxTree.CALL, id);
     } else {
       error("Invalid right hand side ID");
     }
+    return false;
   }
-
-  //<exprlist> ::= <expr> ( COMMA <expr> )* | epsilon
-  private void exprlist() throws MyPLException {
-    if(isExpression(currToken.type())){
-      expr();
-      while(currToken.type() == TokenType.COMMA){
-        advance();
-        expr();
-      }
-    }
-  }
-}
\ No newline at end of file
+}
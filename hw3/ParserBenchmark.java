@@ -0,0 +1,587 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: ParserBenchmark.java
+ *
+ * Simple timing driver for the parser, in the style of LexerBenchmark.
+ * Each benchmark generates a valid MyPL program in memory, runs a few
+ * warm-up rounds, and then reports the best time over several measured
+ * rounds. Run with the name of the benchmark to run (e.g., java
+ * ParserBenchmark parse); scaling and precedence are checks that exit
+ * with status 1 on a failure.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+
+public class ParserBenchmark {
+
+  private static final int WARMUP = 5;
+  private static final int ROUNDS = 10;
+  // most the time per token may grow by from the smallest scaling input
+  // to the largest
+  private static final double MAX_GROWTH = 4.0;
+
+  public static void main(String[] args) throws MyPLException {
+    String which = args.length > 0 ? args[0] : "parse";
+    if (which.equals("parse")) {
+      parse();
+    } else if (which.equals("scaling")) {
+      scaling();
+    } else if (which.equals("tree")) {
+      tree();
+    } else if (which.equals("events")) {
+      events();
+    } else if (which.equals("pipeline")) {
+      pipeline();
+    } else if (which.equals("parallel")) {
+      parallel();
+    } else if (which.equals("incremental")) {
+      incremental();
+    } else if (which.equals("pooled")) {
+      pooled();
+    } else if (which.equals("precedence")) {
+      precedence();
+    } else {
+      System.out.println("Unknown benchmark '" + which + "'");
+      System.exit(1);
+    }
+  }
+
+
+  /* Benchmarks */
+
+  // parsing already lexed programs (so the time is the parser's own),
+  // and lexing and parsing them together
+  private static void parse() throws MyPLException {
+    SourceBuffer[] files = new SourceBuffer[50];
+    TokenBuffer[] tokens = new TokenBuffer[files.length];
+    int count = 0;
+    for (int i = 0; i < files.length; i++) {
+      files[i] = buffer(program(2000, i));
+      tokens[i] = lexer(files[i]).tokenizeAll();
+      count += tokens[i].size();
+    }
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      for (TokenBuffer t : tokens)
+        new Parser(t).parse();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("parse token buffers", count, best);
+    best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      for (SourceBuffer f : files)
+        new Parser(lexer(f)).parse();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("lex and parse", count, best);
+  }
+
+
+  // building syntax trees of already lexed programs, into one reused
+  // tree and into a new tree per program
+  private static void tree() throws MyPLException {
+    SourceBuffer[] files = new SourceBuffer[50];
+    TokenBuffer[] tokens = new TokenBuffer[files.length];
+    int count = 0;
+    for (int i = 0; i < files.length; i++) {
+      files[i] = buffer(program(2000, i));
+      tokens[i] = lexer(files[i]).tokenizeAll();
+      count += tokens[i].size();
+    }
+    SyntaxTree tree = new SyntaxTree();
+    long nodes = 0;
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      nodes = 0;
+      for (TokenBuffer t : tokens)
+        nodes += new Parser(t).parse(tree).size();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("parse into reused tree", count, best);
+    best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      for (TokenBuffer t : tokens)
+        new Parser(t).parse(new SyntaxTree());
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("parse into new trees", count, best);
+    System.out.printf("%d nodes (%.2f per token, 16 bytes each)%n",
+                      nodes, (double) nodes / count);
+  }
+
+
+  // counting the statements of a large program with a listener while
+  // lexing and parsing it, compared to lexing and parsing it alone, and
+  // the same for parsing its tokens (where the parser creates Tokens
+  // only for the events the listener receives)
+  private static void events() throws MyPLException {
+    SourceBuffer file = buffer(program(200000, 1));
+    TokenBuffer tokens = lexer(file).tokenizeAll();
+    int count = tokens.size();
+    long[] statements = new long[1];
+    ParseListener counter = new ParseListener() {
+        @Override
+        public void enterStatement(Token first) {
+          statements[0]++;
+        }
+      };
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      new Parser(lexer(file)).parse();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("lex and parse", count, best);
+    best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      statements[0] = 0;
+      Parser parser = new Parser(lexer(file));
+      parser.setListener(counter);
+      parser.parse();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("lex and parse with listener", count, best);
+    best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      new Parser(tokens).parse();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("parse token buffer", count, best);
+    best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      statements[0] = 0;
+      Parser parser = new Parser(tokens);
+      parser.setListener(counter);
+      parser.parse();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("parse token buffer with listener", count, best);
+    System.out.println(statements[0] + " statements");
+  }
+
+
+  // lexing and parsing a large program on one thread, and with the
+  // lexer on its own thread
+  private static void pipeline() throws MyPLException {
+    SourceBuffer file = buffer(program(200000, 1));
+    int count = lexer(file).tokenizeAll().size();
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      lexer(file).tokenizeAll();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("lex only", count, best);
+    best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      new Parser(lexer(file)).parse();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("lex and parse", count, best);
+    best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      new Parser(new TokenPipeline(lexer(file))).parse();
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("pipelined lex and parse", count, best);
+  }
+
+
+  // parsing (into a tree) the tokens of a large program with a single
+  // parser, and in segments on the common pool
+  private static void parallel() throws MyPLException {
+    TokenBuffer tokens = lexer(buffer(program(200000, 1))).tokenizeAll();
+    SyntaxTree tree = new SyntaxTree();
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      new Parser(tokens).parse(tree);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("parse", tokens.size(), best);
+    best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      ParallelParser.parse(tokens, tree, null);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("parallel parse (" + ForkJoinPool.commonPool().getParallelism() + " threads)",
+           tokens.size(), best);
+  }
+
+
+  // a one-line edit in the middle of a 50,000 line program: lexing and
+  // parsing it again from scratch, and with an IncrementalParser (each
+  // round inserts the line and then removes it). The incremental edit
+  // is also timed near the start of the program with an unfinished
+  // statement near its end and in its middle, and in the middle of the
+  // program with an error every other line, where the parser must stop
+  // where it recovers rather than reparse the rest of the program
+  private static void incremental() throws MyPLException {
+    String program = program(36000, 1);
+    String[] lines = program.split("\n", -1);
+    int offset = program.indexOf('\n', program.length() / 2) + 1;
+    String line = "var z := f(node.next) + 1\n";
+    SourceBuffer source = buffer(program);
+    SyntaxTree tree = new SyntaxTree();
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      SourceBuffer edited = source.edit(offset, 0, line.getBytes());
+      new Parser(lexer(edited).tokenizeAll()).parse(tree);
+      best = Math.min(best, System.nanoTime() - start);
+    }
+    report("full reparse (" + (lines.length - 1) + " lines)", 1, best);
+    timeEdit("", program, offset, line);
+    String unfinished = "var x :=";
+    int early = 0;  // (the start of line 10)
+    for (int i = 0; i < 10; i++)
+      early += lines[i].length() + 1;
+    timeEdit(", error at the end", withLine(lines, lines.length - 10, unfinished), early, line);
+    timeEdit(", error in the middle", withLine(lines, lines.length / 2, unfinished), early,
+             line);
+    StringBuilder errors = new StringBuilder();
+    for (int i = 0; i + 1 < lines.length; i++) {
+      errors.append(lines[i]).append('\n');
+      if (i % 2 == 1)
+        errors.append(unfinished).append('\n');
+    }
+    timeEdit(", error every 2 lines", errors.toString(), errors.length() / 2, line);
+  }
+
+
+  // checking many small files (as a server does) with a new Lexer and
+  // Parser per file, and with a pipeline from a ParserPool per file:
+  // the time and the bytes allocated per file (building the tree, and
+  // without one)
+  private static void pooled() throws MyPLException {
+    SourceBuffer[] files = new SourceBuffer[500];
+    int count = 0;
+    for (int i = 0; i < files.length; i++) {
+      files[i] = buffer(program(100, i));
+      count += lexer(files[i]).tokenizeAll().size();
+    }
+    com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    ParserPool pool = new ParserPool();
+    for (int mode = 0; mode < 4; mode++) {
+      boolean buildTree = mode % 2 == 1;
+      long best = Long.MAX_VALUE;
+      long allocated = 0;
+      for (int round = 0; round < WARMUP + ROUNDS; round++) {
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (SourceBuffer file : files) {
+          if (mode < 2) {
+            Parser parser = new Parser(lexer(file));
+            parser.setDiagnostics(new ArrayList<>());
+            if (buildTree)
+              parser.parse(new SyntaxTree());
+            else
+              parser.parse();
+          } else {
+            ParserPool.Pipeline pipeline = pool.acquire();
+            pipeline.parse(file, buildTree);
+            pool.release(pipeline);
+          }
+        }
+        best = Math.min(best, System.nanoTime() - start);
+        allocated = threads.getThreadAllocatedBytes(thread) - bytes;
+      }
+      String name = (mode < 2 ? "new parser" : "pooled") + (buildTree ? " (tree)" : "");
+      report(name, count, best);
+      System.out.printf("%-30s %10d bytes allocated per file%n", "", allocated / files.length);
+    }
+  }
+
+
+  // parse time of growing programs, long operator chains, and deeply
+  // nested expressions and loops, on a thread with a small (256 KB)
+  // stack; the time per token should stay flat as the input grows.
+  // The programs (up to 100,000 statements) are also lexed and parsed
+  // in parallel, which must give the same tokens and tree, and the
+  // speed-up is reported. Exits with status 1 if an input fails to
+  // parse, its time per token grows more than MAX_GROWTH times, or the
+  // parallel results differ.
+  private static void scaling() throws MyPLException {
+    String[] kinds = {"statements", "operators", "nested parens", "nested loops"};
+    double[] smallest = new double[kinds.length];
+    int failures = 0;
+    for (int n = 10000; n <= 1000000; n *= 10) {
+      String[] sources = {
+        program(n, n),
+        "var x := 1" + " + 2".repeat(n),
+        "var x := " + "(".repeat(n) + "1" + ")".repeat(n),
+        "for i := 1 to 2 do ".repeat(n) + "f(x.y)" + " end".repeat(n)
+      };
+      for (int k = 0; k < kinds.length; k++) {
+        double perToken = timeSmallStack(n + " " + kinds[k], sources[k]);
+        if (perToken < 0) {
+          failures++;
+        } else if (smallest[k] == 0) {
+          smallest[k] = perToken;
+        } else if (perToken > MAX_GROWTH * smallest[k]) {
+          System.out.printf("%-30s time per token grew %.1f times%n", n + " " + kinds[k],
+                            perToken / smallest[k]);
+          failures++;
+        }
+      }
+      // (two copies of the tokens and tree of a million statements do
+      // not fit in a default heap)
+      if (n <= 100000 && !compareParallel(n + " statements", sources[0]))
+        failures++;
+    }
+    if (failures > 0) {
+      System.out.println(failures + " scaling checks failed");
+      System.exit(1);
+    }
+    System.out.println("all scaling checks passed");
+  }
+
+
+  // the grouping of the operators of some expressions (not a timing):
+  // prints each expression's tree, and exits with status 1 if one is
+  // not the expected one
+  private static void precedence() throws MyPLException {
+    String[][] cases = {
+      {"1 + 2 * 3", "(+ 1 (* 2 3))"},
+      {"1 - 2 - 3", "(- (- 1 2) 3)"},
+      {"neg 1 * 2 + 3", "(+ (* (neg 1) 2) 3)"},
+      {"1 * neg 2 + 3", "(+ (* 1 (neg 2)) 3)"},
+      {"neg neg 1 - 2", "(- (neg (neg 1)) 2)"},
+      {"not x.y and z.w", "(and (not x.y) z.w)"},
+      {"not x.y = 1 and z.w", "(and (not (= x.y 1)) z.w)"},
+      {"a.b or not b.c < 1 + neg 2", "(or a.b (not (< b.c (+ 1 (neg 2)))))"},
+      {"not (a.b or c.d) and e.f", "(and (not (or a.b c.d)) e.f)"},
+      {"f(neg 1 + 2, not x.y)", "(call f (+ (neg 1) 2) (not x.y))"}
+    };
+    int failures = 0;
+    for (String[] c : cases) {
+      String tree = new Parser(lexer(buffer(c[0]))).parseExpression().toString();
+      boolean same = tree.equals(c[1]);
+      System.out.printf("%-30s %s%s%n", c[0], tree, same ? "" : "  (expected " + c[1] + ")");
+      if (!same)
+        failures++;
+    }
+    if (failures > 0) {
+      System.out.println(failures + " precedence checks failed");
+      System.exit(1);
+    }
+    System.out.println("all precedence checks passed");
+  }
+
+
+  /* Helper Functions */
+
+  // lexes the source and then times parsing it (best of three) on a
+  // thread with a 256 KB stack, and returns the time per token (or -1
+  // if the parse failed)
+  private static double timeSmallStack(String name, String source) throws MyPLException {
+    TokenBuffer tokens = lexer(buffer(source)).tokenizeAll();
+    long[] time = new long[1];
+    Throwable[] failure = new Throwable[1];
+    Thread thread = new Thread(null, () -> {
+        try {
+          time[0] = Long.MAX_VALUE;
+          for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            new Parser(tokens).parse();
+            time[0] = Math.min(time[0], System.nanoTime() - start);
+          }
+        } catch (MyPLException | RuntimeException | StackOverflowError e) {
+          failure[0] = e;
+        }
+    }, "parser", 256 * 1024);
+    thread.start();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (failure[0] != null) {
+      System.out.printf("%-30s failed: %s%n", name, failure[0]);
+      return -1;
+    }
+    report(name, tokens.size(), time[0]);
+    return (double) time[0] / tokens.size();
+  }
+
+  // lexes and parses the source with one thread and with ParallelLexer
+  // and ParallelParser (split into at least 8 pieces, so the pieces are
+  // joined even on one core), reports the speed-up, and returns whether
+  // the parallel tokens and tree are the same as the sequential ones
+  private static boolean compareParallel(String name, String text) throws MyPLException {
+    SourceBuffer source = buffer(text);
+    ForkJoinPool pool = ForkJoinPool.commonPool();
+    int pieces = Math.max(8, 4 * pool.getParallelism());
+    TokenBuffer tokens = null;
+    TokenBuffer parallelTokens = null;
+    SyntaxTree tree = new SyntaxTree();
+    SyntaxTree parallelTree = new SyntaxTree();
+    long sequential = Long.MAX_VALUE;
+    long parallel = Long.MAX_VALUE;
+    for (int round = 0; round < 3; round++) {
+      long start = System.nanoTime();
+      tokens = lexer(source).tokenizeAll();
+      new Parser(tokens).parse(tree);
+      sequential = Math.min(sequential, System.nanoTime() - start);
+      start = System.nanoTime();
+      parallelTokens = ParallelLexer.tokenize(source, pool, source.length() / pieces);
+      ParallelParser.parse(parallelTokens, parallelTree, null, pool,
+                           parallelTokens.size() / pieces);
+      parallel = Math.min(parallel, System.nanoTime() - start);
+    }
+    boolean same = LexerBenchmark.sameTokens(tokens, parallelTokens)
+      && sameTree(tree, parallelTree);
+    System.out.printf("%-30s parallel speed-up %.2fx on %d threads, %s%n", name,
+                      (double) sequential / parallel, pool.getParallelism(),
+                      same ? "same tokens and tree" : "DIFFERENT tokens or tree");
+    return same;
+  }
+
+  // whether two trees have the same shape, kinds, and tokens (their
+  // nodes may be numbered differently)
+  private static boolean sameTree(SyntaxTree a, SyntaxTree b) {
+    int[] pairs = new int[64];
+    int top = 0;
+    pairs[top++] = a.root();
+    pairs[top++] = b.root();
+    while (top > 0) {
+      int y = pairs[--top];
+      int x = pairs[--top];
+      if (x < 0 || y < 0) {
+        if (x != y)
+          return false;
+        continue;
+      }
+      if (a.kind(x) != b.kind(y) || a.token(x) != b.token(y))
+        return false;
+      if (top + 4 > pairs.length)
+        pairs = Arrays.copyOf(pairs, pairs.length * 2);
+      pairs[top++] = a.nextSibling(x);
+      pairs[top++] = b.nextSibling(y);
+      pairs[top++] = a.firstChild(x);
+      pairs[top++] = b.firstChild(y);
+    }
+    return true;
+  }
+
+
+  // times inserting the given line at the given offset of the given
+  // program with an IncrementalParser (removing it after each round)
+  private static void timeEdit(String name, String program, int offset, String line)
+    throws MyPLException
+  {
+    IncrementalParser parser = new IncrementalParser(lexer(buffer(program)).tokenizeAll());
+    int errors = parser.diagnostics().size();
+    offset = program.lastIndexOf('\n', offset - 1) + 1;  // (at the start of a line)
+    long best = Long.MAX_VALUE;
+    for (int round = 0; round < WARMUP + ROUNDS; round++) {
+      long start = System.nanoTime();
+      parser.edit(offset, 0, line);
+      best = Math.min(best, System.nanoTime() - start);
+      parser.edit(offset, line.length(), "");
+    }
+    report("incremental reparse (" + parser.reparsed() + " of " + parser.units()
+           + " units" + name + ", " + errors + " errors)", 1, best);
+  }
+
+  // the program with the given lines, with another line before the
+  // line at the given index
+  private static String withLine(String[] lines, int index, String line) {
+    StringBuilder s = new StringBuilder();
+    for (int i = 0; i + 1 < lines.length; i++) {
+      if (i == index)
+        s.append(line).append('\n');
+      s.append(lines[i]).append('\n');
+    }
+    return s.toString();
+  }
+
+  private static SourceBuffer buffer(String source) {
+    return new SourceBuffer(ByteBuffer.wrap(source.getBytes()));
+  }
+
+  private static Lexer lexer(SourceBuffer source) {
+    return new Lexer(source, 0, source.length(), 1, 0);
+  }
+
+  private static void report(String name, int count, long nanos) {
+    System.out.printf("%-30s %10d items %8.2f ms %8.1f ns/item%n",
+                      name, count, nanos / 1e6, (double) nanos / count);
+  }
+
+  // a program the parser accepts with the given number of top-level
+  // statements
+  static String program(int statements, long seed) {
+    Random random = new Random(seed);
+    StringBuilder s = new StringBuilder();
+    for (int i = 0; i < statements; i++) {
+      switch (random.nextInt(6)) {
+        case 0:
+          s.append("fun int f" + i + "(int a, Node b) " + statement(random, 1) + " end\n");
+          break;
+        case 1:
+          s.append("for i := 1 to n.size do\n");
+          for (int j = random.nextInt(4); j >= 0; j--)
+            s.append("  " + statement(random, 1) + "\n");
+          s.append("end\n");
+          break;
+        default:
+          s.append(statement(random, 0) + "\n");
+      }
+    }
+    return s.toString();
+  }
+
+  // a basic statement (other than a for loop below the given depth)
+  private static String statement(Random random, int depth) {
+    switch (random.nextInt(depth > 1 ? 4 : 5)) {
+      case 0: return "var x" + random.nextInt(99) + " := " + expression(random, 0);
+      case 1: return "set node.value := " + expression(random, 0);
+      case 2: return "return " + expression(random, 0);
+      case 3: return "print(" + expression(random, 0) + ", count.total)";
+      default: return "for j := 1 to 9 do " + statement(random, depth + 1) + " end";
+    }
+  }
+
+  private static String expression(Random random, int depth) {
+    String[] operators = {"+", "-", "*", "/", "%", "and", "or", "=", "!=",
+                          "<", "<=", ">", ">="};
+    String e = term(random, depth);
+    for (int i = random.nextInt(4); i > 0; i--)
+      e += " " + operators[random.nextInt(operators.length)] + " " + term(random, depth);
+    return e;
+  }
+
+  private static String term(Random random, int depth) {
+    switch (random.nextInt(depth > 2 ? 6 : 10)) {
+      case 0: return "" + (1 + random.nextInt(9));
+      case 1: return "3.5";
+      case 2: return "\"text\"";
+      case 3: return "node.next.value";
+      case 4: return "'c'";
+      case 5: return "nil";
+      case 6: return "neg " + term(random, depth + 1);
+      case 7: return "not " + term(random, depth + 1);
+      case 8: return "(" + expression(random, depth + 1) + ")";
+      default: return "f(" + expression(random, depth + 1) + ", new Node)";
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: ParserPool.java
+ *
+ * Pool of parsing pipelines (a Lexer and Parser with the token buffer,
+ * syntax tree, and error list they fill) for servers that parse many
+ * sources, e.g., ParseDaemon and BatchValidator. Rather than creating
+ * a lexer, parser, and their arrays per request, a worker takes a
+ * pipeline from the pool, resets it over its source (see Lexer.reset
+ * and Parser.reset), and puts it back, so once the buffers have grown
+ * to the size of the largest source a request only allocates the
+ * objects it returns (the errors found).
+ *
+ * Pipelines are kept in a small array of slots (about two per core)
+ * rather than a single queue or thread locals: a thread starts looking
+ * at the slot its id hashes to, so threads rarely contend for a slot,
+ * and pooled pipelines do not outlive their use the way thread locals
+ * of short-lived (e.g., virtual) threads would. A pipeline is taken or
+ * returned with one atomic swap; when the slots looked at are all
+ * empty a new pipeline is created, and when they are all full the
+ * returned one is dropped.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+public class ParserPool {
+
+  private static final int PROBES = 4;   // slots looked at per acquire or release
+
+  /**
+   * A lexer and parser, with the buffers they fill, that are reset to
+   * parse each source.
+   */
+  public static class Pipeline {
+    private Lexer lexer;
+    private Parser parser;
+    private TokenBuffer tokens;
+    private SyntaxTree tree = new SyntaxTree();
+    private List<MyPLException> diagnostics = new ArrayList<>();
+
+    /**
+     * Lexes and parses the given source in diagnostics mode (building
+     * its syntax tree if buildTree is true), and returns its errors in
+     * order. The errors, tokens, and tree belong to the pipeline, so
+     * they are only valid until its next parse.
+     */
+    public List<MyPLException> parse(SourceBuffer source, boolean buildTree) {
+      if (lexer == null) {
+        lexer = new Lexer(source, 0, source.length(), 1, 0);
+        parser = new Parser(lexer);
+        tokens = lexer.tokenBuffer();
+        parser.setDiagnostics(diagnostics);
+      } else {
+        lexer.reset(source, 0, source.length(), 1, 0);
+      }
+      diagnostics.clear();
+      parser.reset(lexer, tokens);
+      try {
+        if (buildTree)
+          parser.parse(tree);
+        else
+          parser.parse();
+      } catch (MyPLException e) {
+        diagnostics.add(e);
+      }
+      return diagnostics;
+    }
+
+    // the tokens of the last parse
+    public TokenBuffer tokens() {
+      return tokens;
+    }
+
+    // the syntax tree of the last parse (if it built one)
+    public SyntaxTree tree() {
+      return tree;
+    }
+  }
+
+  private AtomicReferenceArray<Pipeline> slots;
+
+  /**
+   * Create a pool with two slots per core.
+   */
+  public ParserPool() {
+    this(2 * Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Create a pool keeping at most the given number of pipelines.
+   */
+  public ParserPool(int size) {
+    slots = new AtomicReferenceArray<>(Math.max(1, size));
+  }
+
+  /**
+   * Takes a pipeline from the pool, or creates one if there is none
+   * near the calling thread's slot.
+   */
+  public Pipeline acquire() {
+    int start = home();
+    for (int i = 0; i < PROBES; i++) {
+      Pipeline pipeline = slots.getAndSet((start + i) % slots.length(), null);
+      if (pipeline != null)
+        return pipeline;
+    }
+    return new Pipeline();
+  }
+
+  /**
+   * Puts a pipeline taken by acquire back in the pool (or drops it if
+   * the slots near the calling thread's are full).
+   */
+  public void release(Pipeline pipeline) {
+    int start = home();
+    for (int i = 0; i < PROBES; i++)
+      if (slots.compareAndSet((start + i) % slots.length(), null, pipeline))
+        return;
+  }
+
+  /**
+   * Lexes and parses the given source in diagnostics mode with a pooled
+   * pipeline, and returns a copy of its errors.
+   */
+  public List<MyPLException> validate(SourceBuffer source) {
+    Pipeline pipeline = acquire();
+    try {
+      return new ArrayList<>(pipeline.parse(source, false));
+    } finally {
+      release(pipeline);
+    }
+  }
+
+
+  /* Helper Functions */
+
+  // the slot the calling thread looks at first
+  private int home() {
+    long id = Thread.currentThread().getId();
+    int hash = (int)(id ^ (id >>> 32)) * 0x9E3779B9;
+    return (hash >>> 1) % slots.length();
+  }
+}
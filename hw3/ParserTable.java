@@ -0,0 +1,113 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: ParserTable.java
+ *
+ * Precomputed token sets for the MyPL parser's LL(1) decisions. Each
+ * set is a long bitmask with bit i set for the TokenType of ordinal i,
+ * so a membership test is a shift and an AND (instead of building a
+ * Set per call). The sets are the FIRST sets of the nonterminals as
+ * Parser decides them, which is what defines the language it accepts
+ * (e.g., WHILE does not start a <bstmt>, so the sets are not derived
+ * from the BNF in the Parser comments). Epsilon alternatives are
+ * chosen whenever the current token is not in the FIRST set.
+ *
+ * The table also gives the precedence of each operator: OR (lowest),
+ * AND, NOT, the comparisons, the additive and then the multiplicative
+ * operators, and NEG (highest). The binary operators are all left
+ * associative, and a prefix operator's operand ends at the first
+ * binary operator of lower or equal precedence after it, e.g.,
+ * neg 1 * 2 + 3 is ((neg 1) * 2) + 3, 1 * neg 2 + 3 is
+ * (1 * (neg 2)) + 3, and not x = y and z is (not (x = y)) and z. The
+ * precedences only decide the shape of the tree, not which inputs are
+ * accepted.
+ */
+
+
+public class ParserTable {
+
+  /** <pval> */
+  public static final long PVAL = set(TokenType.INT_VAL, TokenType.DOUBLE_VAL,
+                                      TokenType.BOOL_VAL, TokenType.STRING_VAL,
+                                      TokenType.CHAR_VAL);
+
+  /** <rvalue> */
+  public static final long RVALUE = PVAL | set(TokenType.NIL, TokenType.NEW,
+                                               TokenType.NEG, TokenType.ID);
+
+  /** <expr> */
+  public static final long EXPR = RVALUE | set(TokenType.NOT, TokenType.LPAREN);
+
+  /** <dtype> (other than ID) */
+  public static final long DTYPE = set(TokenType.INT_TYPE, TokenType.DOUBLE_TYPE,
+                                       TokenType.STRING_TYPE, TokenType.BOOL_TYPE,
+                                       TokenType.CHAR_TYPE);
+
+  /** <bstmt> */
+  public static final long BSTMT = EXPR | set(TokenType.VAR, TokenType.SET,
+                                              TokenType.IF, TokenType.FOR,
+                                              TokenType.RETURN);
+
+  /** <stmt> */
+  public static final long STMT = BSTMT | DTYPE | set(TokenType.TYPE, TokenType.FUN);
+
+  /** binary operators */
+  public static final long OPERATOR =
+    set(TokenType.PLUS, TokenType.MINUS, TokenType.DIVIDE, TokenType.MULTIPLY,
+        TokenType.MODULO, TokenType.AND, TokenType.OR, TokenType.EQUAL,
+        TokenType.LESS_THAN, TokenType.LESS_THAN_EQUAL, TokenType.GREATER_THAN,
+        TokenType.GREATER_THAN_EQUAL, TokenType.NOT_EQUAL);
+
+  /** reserved words that start a statement, where error recovery resumes */
+  public static final long STATEMENT_START =
+    set(TokenType.VAR, TokenType.SET, TokenType.IF, TokenType.WHILE,
+        TokenType.FOR, TokenType.RETURN, TokenType.FUN, TokenType.TYPE);
+
+
+  private static final byte[] PRECEDENCE = new byte[TokenType.values().length];
+
+
+  /**
+   * Returns true if the given set contains the given token type.
+   */
+  public static boolean contains(long set, TokenType type) {
+    return (set & (1L << type.ordinal())) != 0;
+  }
+
+
+  /**
+   * Returns the precedence of the given binary or prefix operator
+   * (higher binds tighter), or 0 if the token is not an operator.
+   */
+  public static int precedence(TokenType op) {
+    return PRECEDENCE[op.ordinal()];
+  }
+
+
+  /* Table construction */
+
+  private static long set(TokenType... types) {
+    long set = 0;
+    for (TokenType t : types)
+      set |= 1L << t.ordinal();
+    return set;
+  }
+
+  static {
+    if (TokenType.values().length > 64)
+      throw new AssertionError("token types do not fit in a long");
+    PRECEDENCE[TokenType.OR.ordinal()] = 1;
+    PRECEDENCE[TokenType.AND.ordinal()] = 2;
+    PRECEDENCE[TokenType.NOT.ordinal()] = 3;
+    for (TokenType op : new TokenType[] {TokenType.EQUAL, TokenType.NOT_EQUAL,
+                                         TokenType.LESS_THAN, TokenType.LESS_THAN_EQUAL,
+                                         TokenType.GREATER_THAN, TokenType.GREATER_THAN_EQUAL})
+      PRECEDENCE[op.ordinal()] = 4;
+    PRECEDENCE[TokenType.PLUS.ordinal()] = 5;
+    PRECEDENCE[TokenType.MINUS.ordinal()] = 5;
+    PRECEDENCE[TokenType.MULTIPLY.ordinal()] = 6;
+    PRECEDENCE[TokenType.DIVIDE.ordinal()] = 6;
+    PRECEDENCE[TokenType.MODULO.ordinal()] = 6;
+    PRECEDENCE[TokenType.NEG.ordinal()] = 7;
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: ScanKernel.java
+ *
+ * Bulk scanning of the runs that make up most of a source file:
+ * spaces, comment bodies, and identifiers. Instead of one character
+ * per step, each step loads 8 bytes of the source as a long and
+ * classifies all of them at once with a few arithmetic operations
+ * (SIMD within a register), falling back to one byte at a time for
+ * the last few bytes. Each method returns the offset of the first
+ * byte in [from, to) that does not belong to the run (or to), and
+ * stops at any non-ASCII byte so the lexer can decode it.
+ */
+
+
+public class ScanKernel {
+
+  private static final long ONES = 0x0101010101010101L;
+  private static final long LOWS = 0x7F7F7F7F7F7F7F7FL;
+  private static final long HIGHS = 0x8080808080808080L;
+
+  /**
+   * Skips spaces, tabs, and carriage returns.
+   */
+  public static int skipSpaces(SourceBuffer source, int from, int to) {
+    for (; from + 8 <= to; from += 8) {
+      long word = source.longAt(from);
+      long stop = ~(equal(word, ' ') | equal(word, '\t') | equal(word, '\r')) & HIGHS;
+      if (stop != 0)
+        return from + first(stop);
+    }
+    for (; from < to; from++) {
+      byte b = source.byteAt(from);
+      if (b != ' ' && b != '\t' && b != '\r')
+        break;
+    }
+    return from;
+  }
+
+  /**
+   * Skips the rest of a comment, i.e., up to the next newline.
+   */
+  public static int skipComment(SourceBuffer source, int from, int to) {
+    for (; from + 8 <= to; from += 8) {
+      long stop = equal(source.longAt(from), '\n');
+      if (stop != 0)
+        return from + first(stop);
+    }
+    while (from < to && source.byteAt(from) != '\n')
+      from++;
+    return from;
+  }
+
+  /**
+   * Skips ASCII letters, digits, and underscores.
+   */
+  public static int skipIdentifier(SourceBuffer source, int from, int to) {
+    for (; from + 8 <= to; from += 8) {
+      long word = source.longAt(from);
+      long low = word & LOWS;
+      long letters = between(low | (0x20 * ONES), 'a', 'z');
+      long digits = between(low, '0', '9');
+      long part = (letters | digits | equal(low, '_')) & ~word;
+      long stop = ~part & HIGHS;
+      if (stop != 0)
+        return from + first(stop);
+    }
+    for (; from < to; from++) {
+      byte b = source.byteAt(from);
+      int lower = b | 0x20;
+      if (!(lower >= 'a' && lower <= 'z') && !(b >= '0' && b <= '9') && b != '_')
+        break;
+    }
+    return from;
+  }
+
+
+  // marks (with the high bit) each byte of the word equal to c
+  private static long equal(long word, int c) {
+    long x = word ^ (c * ONES);
+    return ~(((x & LOWS) + LOWS) | x | LOWS);
+  }
+
+  // marks each byte of a word of 7 bit bytes that is in [lo, hi]
+  private static long between(long low, int lo, int hi) {
+    long atLeast = low + (0x80 - lo) * ONES;
+    long above = low + (0x7F - hi) * ONES;
+    return atLeast & ~above & HIGHS;
+  }
+
+  // the index of the first marked byte (the word is big-endian)
+  private static int first(long marks) {
+    return Long.numberOfLeadingZeros(marks) >>> 3;
+  }
+}
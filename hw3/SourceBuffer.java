@@ -0,0 +1,257 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: SourceBuffer.java
+ *
+ * Buffer holding the UTF-8 bytes of a source file. The buffer is
+ * either filled in chunks by the lexer as it reads an input stream
+ * (so it also serves as the lexer's lookahead), or is a read-only
+ * memory mapping of a whole file. Tokens refer to their text by byte
+ * offsets into the buffer, so a lexeme string is only created when
+ * someone asks for it.
+ *
+ * A source being edited (see splice) is kept in a gap buffer: its
+ * bytes are in a heap array with a run of free bytes at the place of
+ * the last edit, so an edit only moves the bytes between it and the
+ * previous edit rather than the whole rest of the source. Offsets are
+ * always those of the edited source, as if the bytes were contiguous.
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+
+public class SourceBuffer {
+
+  private ByteBuffer data;
+  private int length;
+  private int gap = Integer.MAX_VALUE;  // offset of the gap (if spliced)
+  private int gapLength;                // free bytes in the gap
+
+  /**
+   * Create an empty buffer that grows as bytes are appended.
+   */
+  public SourceBuffer() {
+    data = ByteBuffer.allocate(8192);
+  }
+
+  /**
+   * Create a buffer over the given bytes (from position 0 to the
+   * limit). The buffer cannot be appended to.
+   */
+  public SourceBuffer(ByteBuffer contents) {
+    data = contents;
+    length = contents.limit();
+  }
+
+  /**
+   * Memory maps the given file.
+   */
+  public static SourceBuffer map(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return map(channel);
+    }
+  }
+
+  /**
+   * Memory maps the file of the given channel. The mapping stays valid
+   * after the channel is closed.
+   */
+  public static SourceBuffer map(FileChannel channel) throws IOException {
+    long size = channel.size();
+    if (size > Integer.MAX_VALUE)
+      throw new IOException("file too large to map (" + size + " bytes)");
+    return new SourceBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+  }
+
+  /**
+   * Adds a byte to the end of the buffer.
+   */
+  public void append(int b) {
+    if (length == data.capacity())
+      grow();
+    data.put(length++, (byte)b);
+  }
+
+  /**
+   * Adds the next chunk of bytes from the given stream to the end of
+   * the buffer (with a single read call). Returns the number of bytes
+   * added, or -1 at the end of the stream.
+   */
+  public int fill(InputStream in) throws IOException {
+    if (length == data.capacity())
+      grow();
+    int n = in.read(data.array(), data.arrayOffset() + length, data.capacity() - length);
+    if (n > 0)
+      length += n;
+    return n;
+  }
+
+  /**
+   * Returns a read-only view of the bytes in the buffer so far, which
+   * later appends do not change (they write past them, or into a new
+   * array), so another thread can read them while this buffer is being
+   * filled (see TokenPipeline). A spliced buffer is copied instead.
+   */
+  public SourceBuffer snapshot() {
+    if (gap != Integer.MAX_VALUE)
+      return edit(length, 0, new byte[0]);
+    return new SourceBuffer(data.duplicate().limit(length));
+  }
+
+  // doubles the capacity of a growable buffer
+  private void grow() {
+    ByteBuffer bigger = ByteBuffer.allocate(data.capacity() * 2);
+    bigger.put(0, data, 0, length);
+    data = bigger;
+  }
+
+  /**
+   * Returns a new buffer holding this buffer's bytes with the bytes
+   * [offset, offset + removed) replaced by the given bytes.
+   */
+  public SourceBuffer edit(int offset, int removed, byte[] inserted) {
+    byte[] edited = new byte[length - removed + inserted.length];
+    get(0, edited, 0, offset);
+    System.arraycopy(inserted, 0, edited, offset, inserted.length);
+    int rest = offset + removed;
+    get(rest, edited, offset + inserted.length, length - rest);
+    return new SourceBuffer(ByteBuffer.wrap(edited));
+  }
+
+  /**
+   * Replaces the bytes [offset, offset + removed) with the given bytes,
+   * in place. The first splice copies the bytes into a gap buffer the
+   * source owns (a mapped or wrapped source is left as it was), and
+   * later ones take time proportional to the size of the edit and its
+   * distance from the previous one. A buffer being filled from a
+   * stream cannot be spliced.
+   */
+  public void splice(int offset, int removed, byte[] inserted) {
+    if (gap == Integer.MAX_VALUE)
+      resize(offset, inserted.length);
+    moveGap(offset);
+    gapLength += removed;
+    length -= removed;
+    if (inserted.length > gapLength)
+      resize(offset, inserted.length);
+    System.arraycopy(inserted, 0, data.array(), gap, inserted.length);
+    gap += inserted.length;
+    gapLength -= inserted.length;
+    length += inserted.length;
+  }
+
+  /**
+   * Returns a copy of the bytes [start, end).
+   */
+  public byte[] bytes(int start, int end) {
+    byte[] bytes = new byte[end - start];
+    get(start, bytes, 0, bytes.length);
+    return bytes;
+  }
+
+  /**
+   * Returns the number of bytes in the buffer.
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Returns the byte at the given offset.
+   */
+  public byte byteAt(int offset) {
+    return data.get(offset < gap ? offset : offset + gapLength);
+  }
+
+  /**
+   * Returns the 8 bytes at the given offset as a (big-endian) long.
+   */
+  public long longAt(int offset) {
+    if (offset + 8 <= gap)
+      return data.getLong(offset);
+    if (offset >= gap)
+      return data.getLong(offset + gapLength);
+    // the bytes straddle the gap
+    long word = 0;
+    for (int i = 0; i < 8; i++)
+      word = word << 8 | (byteAt(offset + i) & 0xFF);
+    return word;
+  }
+
+  /**
+   * Returns a 64-bit hash of the bytes, reading 8 at a time (so
+   * hashing runs at memory speed). Equal contents have equal hashes,
+   * and different contents almost never do, but the hash is not meant
+   * to resist deliberate collisions.
+   */
+  public long hash() {
+    long h = 0x9E3779B97F4A7C15L ^ length;
+    int i = 0;
+    for (; i + 8 <= length; i += 8)
+      h = mix(h ^ longAt(i));
+    long tail = 0;
+    for (; i < length; i++)
+      tail = tail << 8 | (byteAt(i) & 0xFF);
+    h = mix(h ^ tail);
+    // final avalanche (from MurmurHash3)
+    h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+    h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+    return h ^ (h >>> 33);
+  }
+
+  // mixes a word into the hash
+  private static long mix(long h) {
+    h *= 0x9E3779B97F4A7C15L;
+    return h ^ (h >>> 29);
+  }
+
+  /**
+   * Decodes the bytes [start, end) into a string.
+   */
+  public String text(int start, int end) {
+    if (data.hasArray() && (end <= gap || start >= gap)) {
+      int physical = start < gap ? start : start + gapLength;
+      return new String(data.array(), data.arrayOffset() + physical, end - start,
+                        StandardCharsets.UTF_8);
+    }
+    return new String(bytes(start, end), StandardCharsets.UTF_8);
+  }
+
+
+  /* Helper Functions */
+
+  // copies the bytes [start, start + count) to dst at the given index
+  private void get(int start, byte[] dst, int index, int count) {
+    int before = Math.max(0, Math.min(count, gap - start));
+    data.get(start, dst, index, before);
+    data.get(start + before + gapLength, dst, index + before, count - before);
+  }
+
+  // moves the gap to the given offset, moving the bytes in between
+  private void moveGap(int offset) {
+    byte[] bytes = data.array();
+    if (offset < gap)
+      System.arraycopy(bytes, offset, bytes, offset + gapLength, gap - offset);
+    else if (offset > gap)
+      System.arraycopy(bytes, gap + gapLength, bytes, gap, offset - gap);
+    gap = offset;
+  }
+
+  // copies the bytes into a new heap array with a gap at the given
+  // offset with room for at least needed bytes (and a gap's worth more)
+  private void resize(int offset, int needed) {
+    int room = Math.max(needed, Math.max(4096, length / 8));
+    byte[] bytes = new byte[length + room];
+    get(0, bytes, 0, offset);
+    get(offset, bytes, offset + room, length - offset);
+    data = ByteBuffer.wrap(bytes);
+    gap = offset;
+    gapLength = room;
+  }
+}
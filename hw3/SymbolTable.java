@@ -0,0 +1,167 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: SymbolTable.java
+ *
+ * Thread-safe table that interns identifiers into dense int ids (0, 1,
+ * 2, ...), so later stages can compare identifiers as ints. One table
+ * can be shared by any number of lexers running at the same time.
+ *
+ * Identifiers are looked up by hashing their bytes directly in the
+ * lexer's source buffer; a String is only created the first time an
+ * identifier is seen. The table is split into stripes by hash. Lookups
+ * of identifiers already in the table take no locks (stripe tables
+ * hold immutable entries and are replaced, not modified, when they
+ * grow); adding an identifier locks only its stripe.
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+public class SymbolTable {
+
+  private static final int STRIPES = 64;          // power of two
+  private static final int PAGE_SIZE = 4096;      // names per page
+  private static final int PAGES = 1 << 16;
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+  private final AtomicInteger count = new AtomicInteger();
+  private final AtomicReferenceArray<AtomicReferenceArray<String>> names =
+    new AtomicReferenceArray<>(PAGES);
+
+  /**
+   * Create an empty table.
+   */
+  public SymbolTable() {
+    for (int i = 0; i < STRIPES; i++)
+      stripes[i] = new Stripe();
+  }
+
+  /**
+   * Returns the id of the identifier in the source bytes [start, end),
+   * adding it to the table if needed.
+   */
+  public int intern(SourceBuffer source, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++)
+      hash = 31 * hash + source.byteAt(i);
+    hash ^= hash >>> 16;
+    Stripe stripe = stripes[hash & (STRIPES - 1)];
+    int id = stripe.find(stripe.table, hash, source, start, end);
+    if (id >= 0)
+      return id;
+    synchronized (stripe) {
+      id = stripe.find(stripe.table, hash, source, start, end);
+      if (id < 0)
+        id = stripe.add(hash, source, start, end);
+    }
+    return id;
+  }
+
+  /**
+   * Returns the id of the given identifier, adding it if needed.
+   */
+  public int intern(String name) {
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    return intern(new SourceBuffer(java.nio.ByteBuffer.wrap(bytes)), 0, bytes.length);
+  }
+
+  /**
+   * Returns the identifier with the given id.
+   */
+  public String name(int id) {
+    return names.get(id / PAGE_SIZE).get(id % PAGE_SIZE);
+  }
+
+  /**
+   * Returns the number of identifiers in the table.
+   */
+  public int size() {
+    return count.get();
+  }
+
+
+  // records the name of a new id; called with the id's stripe locked
+  private int newId(String name) {
+    int id = count.getAndIncrement();
+    int page = id / PAGE_SIZE;
+    if (page >= PAGES)
+      throw new IllegalStateException("symbol table full");
+    if (names.get(page) == null)
+      names.compareAndSet(page, null, new AtomicReferenceArray<>(PAGE_SIZE));
+    names.get(page).set(id % PAGE_SIZE, name);
+    return id;
+  }
+
+
+  // an interned identifier (immutable, so it can be read without locks)
+  private static final class Entry {
+    final int hash;
+    final byte[] bytes;
+    final int id;
+
+    Entry(int hash, byte[] bytes, int id) {
+      this.hash = hash;
+      this.bytes = bytes;
+      this.id = id;
+    }
+  }
+
+
+  // one stripe: an open addressing hash table of entries
+  private final class Stripe {
+    volatile Entry[] table = new Entry[16];
+    int size;
+
+    // returns the id of the identifier, or -1 if not in the table
+    int find(Entry[] entries, int hash, SourceBuffer source, int start, int end) {
+      int mask = entries.length - 1;
+      for (int i = (hash >>> 6) & mask; ; i = (i + 1) & mask) {
+        Entry e = entries[i];
+        if (e == null)
+          return -1;
+        if (e.hash == hash && same(e.bytes, source, start, end))
+          return e.id;
+      }
+    }
+
+    // adds a new identifier, growing the table first if needed
+    int add(int hash, SourceBuffer source, int start, int end) {
+      Entry[] entries = table;
+      if (2 * (size + 1) > entries.length) {
+        Entry[] bigger = new Entry[entries.length * 2];
+        for (Entry e : entries)
+          if (e != null)
+            put(bigger, e);
+        entries = bigger;
+      }
+      byte[] bytes = new byte[end - start];
+      for (int i = 0; i < bytes.length; i++)
+        bytes[i] = source.byteAt(start + i);
+      Entry entry = new Entry(hash, bytes, newId(new String(bytes, StandardCharsets.UTF_8)));
+      put(entries, entry);
+      size++;
+      table = entries;
+      return entry.id;
+    }
+
+    void put(Entry[] entries, Entry entry) {
+      int mask = entries.length - 1;
+      int i = (entry.hash >>> 6) & mask;
+      while (entries[i] != null)
+        i = (i + 1) & mask;
+      entries[i] = entry;
+    }
+
+    boolean same(byte[] bytes, SourceBuffer source, int start, int end) {
+      if (bytes.length != end - start)
+        return false;
+      for (int i = 0; i < bytes.length; i++)
+        if (bytes[i] != source.byteAt(start + i))
+          return false;
+      return true;
+    }
+  }
+}
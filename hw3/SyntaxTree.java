@@ -0,0 +1,464 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: SyntaxTree.java
+ *
+ * Arena holding the syntax tree the Parser builds. Instead of one
+ * object per node, each node is a record in four parallel int arrays
+ * (its kind, first child, next sibling, and token), which is 16 bytes
+ * per node. The token of a node is its index in the tree's TokenBuffer,
+ * which acts as the constant pool: identifiers and literals are not
+ * copied into the tree, their text, symbol ids, and values are read
+ * from the buffer. Nodes are stored in about the order their source
+ * was read, so walking the tree mostly moves forward through the
+ * arrays. Resetting the tree keeps its arrays for the next parse.
+ *
+ * The tree of a source being edited (see splice, which IncrementalParser
+ * uses) is kept with a gap at the place of the last edit, as
+ * TokenBuffer keeps its tokens: the links and tokens of the nodes after
+ * the gap are stored without the change in node and token indexes of
+ * the edits before them, which is kept once for all of them instead.
+ *
+ * The children of each kind of node are:
+ *
+ *   PROGRAM     the top-level statements
+ *   TYPE_DECL   NAME VAR_DECL*
+ *   FUN_DECL    TYPE NAME PARAM* statement
+ *   PARAM       TYPE NAME
+ *   VAR_DECL    NAME expr  (or TYPE, for VAR <dtype>)
+ *   ASSIGN      PATH expr
+ *   COND        expr statement
+ *   WHILE       expr statement*
+ *   FOR         NAME expr expr statement*
+ *   RETURN      expr?
+ *   BINARY      expr expr  (the token is the operator)
+ *   UNARY       expr  (the token is NOT or NEG)
+ *   PATH        NAME+
+ *   CALL        expr*  (the token is the function's name)
+ *
+ * VALUE, NEW (the token is the type's name), NAME, and TYPE nodes are
+ * leaves, as are EMPTY nodes (an empty <expr>, with no token) and
+ * ERROR nodes (a statement that failed to parse in diagnostics mode,
+ * whose token is where the error was found). A statement is one of
+ * the statement kinds or an expression. Statement nodes have their
+ * reserved word as their token, and PARAM nodes their first token.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+
+public class SyntaxTree {
+
+  public static final int PROGRAM = 0;
+  public static final int TYPE_DECL = 1;
+  public static final int FUN_DECL = 2;
+  public static final int PARAM = 3;
+  public static final int VAR_DECL = 4;
+  public static final int ASSIGN = 5;
+  public static final int COND = 6;
+  public static final int WHILE = 7;
+  public static final int FOR = 8;
+  public static final int RETURN = 9;
+  public static final int BINARY = 10;
+  public static final int UNARY = 11;
+  public static final int VALUE = 12;
+  public static final int NEW = 13;
+  public static final int PATH = 14;
+  public static final int CALL = 15;
+  public static final int NAME = 16;
+  public static final int TYPE = 17;
+  public static final int EMPTY = 18;
+  public static final int ERROR = 19;
+
+  private TokenBuffer tokens;   // the tokens the nodes refer to
+  private int[] kinds;
+  private int[] firstChildren;  // first child of each node, or -1
+  private int[] nextSiblings;   // next sibling of each node, or -1
+  private int[] nodeTokens;     // token index of each node, or -1
+  private int size;
+  private int root = -1;
+  private int gap = Integer.MAX_VALUE;  // index of the gap (if spliced)
+  private int gapLength;        // free entries in the gap
+  private int nodeShift;        // added to the links after the gap
+  private int tokenShift;       // added to the tokens after the gap
+
+  // no link or token, after the gap (where -1 can be a shifted index)
+  private static final int NONE = Integer.MIN_VALUE;
+
+  /**
+   * Create an empty tree.
+   */
+  public SyntaxTree() {
+    kinds = new int[1024];
+    firstChildren = new int[1024];
+    nextSiblings = new int[1024];
+    nodeTokens = new int[1024];
+  }
+
+  /**
+   * Removes all of the nodes (keeping the memory they used) so the
+   * tree can be built again over the given tokens.
+   */
+  public void reset(TokenBuffer tokens) {
+    this.tokens = tokens;
+    size = 0;
+    root = -1;
+    gap = Integer.MAX_VALUE;
+    gapLength = 0;
+    nodeShift = 0;
+    tokenShift = 0;
+  }
+
+  /**
+   * Adds a node without children and returns its index.
+   */
+  public int add(int kind, int token) {
+    if (gap != Integer.MAX_VALUE)
+      closeGap();
+    if (size == kinds.length)
+      grow();
+    kinds[size] = kind;
+    firstChildren[size] = -1;
+    nextSiblings[size] = -1;
+    nodeTokens[size] = token;
+    return size++;
+  }
+
+  /**
+   * Makes the nodes nodes[from, to) the children of the given node, in
+   * order (replacing any children it had).
+   */
+  public void link(int parent, int[] nodes, int from, int to) {
+    if (gap != Integer.MAX_VALUE)
+      closeGap();
+    firstChildren[parent] = from < to ? nodes[from] : -1;
+    for (int i = from; i < to; i++)
+      nextSiblings[nodes[i]] = i + 1 < to ? nodes[i + 1] : -1;
+  }
+
+  /**
+   * Sets the root node of the tree.
+   */
+  public void setRoot(int node) {
+    root = node;
+  }
+
+  /**
+   * Copies the nodes [from, to) of another tree to the end of this
+   * tree, adding tokenShift to their tokens, and returns the amount
+   * their indexes moved by. Links between the copied nodes move with
+   * them, and links to other nodes are dropped.
+   */
+  public int appendNodes(SyntaxTree other, int from, int to, int tokenShift) {
+    closeGap();
+    other.closeGap();
+    int offset = size - from;
+    int count = to - from;
+    while (size + count > kinds.length)
+      grow();
+    System.arraycopy(other.kinds, from, kinds, size, count);
+    for (int i = from; i < to; i++) {
+      int child = other.firstChildren[i];
+      int sibling = other.nextSiblings[i];
+      int token = other.nodeTokens[i];
+      firstChildren[i + offset] = child >= from && child < to ? child + offset : -1;
+      nextSiblings[i + offset] = sibling >= from && sibling < to ? sibling + offset : -1;
+      nodeTokens[i + offset] = token < 0 ? -1 : token + tokenShift;
+    }
+    size += count;
+    return offset;
+  }
+
+  /**
+   * Makes child the next child of the given node after its child last
+   * (or its first child, if last is -1), and returns child.
+   */
+  public int addChild(int parent, int last, int child) {
+    if (last < 0)
+      firstChildren[physical(parent)] = stored(parent, child);
+    else
+      nextSiblings[physical(last)] = stored(last, child);
+    return child;
+  }
+
+  /**
+   * Replaces the nodes [from, to) with copies of the nodes [otherFrom,
+   * otherTo) of another tree (over the same, edited, tokens), adds
+   * tokenDelta to the tokens of the nodes after them, and returns the
+   * amount the copied nodes' indexes moved by. Links between the
+   * copied nodes move with them, and their links to other nodes are
+   * dropped. No node after to may link to a node before from, and the
+   * links from the nodes before from to the nodes after to must be set
+   * again (e.g., with addChild). Takes time proportional to the number
+   * of nodes replaced and their distance from the previous splice.
+   */
+  public int splice(int from, int to, SyntaxTree other, int otherFrom, int otherTo,
+                    int tokenDelta) {
+    other.closeGap();
+    if (gap == Integer.MAX_VALUE) {
+      gap = size;
+      gapLength = kinds.length - size;
+    }
+    moveGap(from);
+    int removed = to - from;
+    gapLength += removed;
+    size -= removed;
+    int count = otherTo - otherFrom;
+    if (count > gapLength)
+      growGap(count);
+    int offset = gap - otherFrom;
+    System.arraycopy(other.kinds, otherFrom, kinds, gap, count);
+    for (int i = otherFrom; i < otherTo; i++) {
+      int child = other.firstChildren[i];
+      int sibling = other.nextSiblings[i];
+      firstChildren[i + offset] = child >= otherFrom && child < otherTo ? child + offset : -1;
+      nextSiblings[i + offset] = sibling >= otherFrom && sibling < otherTo ? sibling + offset : -1;
+      nodeTokens[i + offset] = other.nodeTokens[i];
+    }
+    gap += count;
+    gapLength -= count;
+    size += count;
+    nodeShift += count - removed;
+    tokenShift += tokenDelta;
+    return offset;
+  }
+
+  /**
+   * Copies the top-level statements of another PROGRAM tree (over the
+   * same tokens) to the end of this tree's PROGRAM, and returns the
+   * last of its statements. last is the statement the previous call
+   * returned (-1 at first), so joining many trees takes linear time.
+   */
+  public int appendProgram(SyntaxTree other, int last) {
+    int offset = appendNodes(other, other.root + 1, other.size, 0);
+    for (int statement = other.firstChildren[other.root]; statement >= 0;
+         statement = other.nextSiblings[statement])
+      last = addChild(root, last, statement + offset);
+    return last;
+  }
+
+  /**
+   * Returns the number of bytes write takes to store the tree.
+   */
+  public int byteSize() {
+    return 8 + size * 16;
+  }
+
+  /**
+   * Writes the nodes (but not the tokens) to the given buffer, in the
+   * form read takes.
+   */
+  public void write(ByteBuffer out) {
+    closeGap();
+    out.putInt(size).putInt(root);
+    out.asIntBuffer().put(kinds, 0, size).put(firstChildren, 0, size)
+      .put(nextSiblings, 0, size).put(nodeTokens, 0, size);
+    out.position(out.position() + size * 16);
+  }
+
+  /**
+   * Replaces the nodes of the tree with the nodes write stored, read
+   * from the given buffer, over the given tokens.
+   */
+  public void read(ByteBuffer in, TokenBuffer tokens) {
+    reset(tokens);
+    int count = in.getInt();
+    root = in.getInt();
+    while (count > kinds.length)
+      grow();
+    in.asIntBuffer().get(kinds, 0, count).get(firstChildren, 0, count)
+      .get(nextSiblings, 0, count).get(nodeTokens, 0, count);
+    in.position(in.position() + count * 16);
+    size = count;
+  }
+
+  // moves the gap to the given index, moving the nodes in between (and
+  // their links and tokens to or from the shifted form)
+  private void moveGap(int index) {
+    if (index < gap) {
+      move(index, index + gapLength, gap - index);
+      for (int i = index + gapLength; i < gap + gapLength; i++) {
+        firstChildren[i] = shifted(firstChildren[i], nodeShift);
+        nextSiblings[i] = shifted(nextSiblings[i], nodeShift);
+        nodeTokens[i] = shifted(nodeTokens[i], tokenShift);
+      }
+    } else if (index > gap) {
+      move(gap + gapLength, gap, index - gap);
+      for (int i = gap; i < index; i++) {
+        firstChildren[i] = unshifted(firstChildren[i], nodeShift);
+        nextSiblings[i] = unshifted(nextSiblings[i], nodeShift);
+        nodeTokens[i] = unshifted(nodeTokens[i], tokenShift);
+      }
+    }
+    gap = index;
+  }
+
+  // moves the nodes [from, from + count) to the given index
+  private void move(int from, int to, int count) {
+    System.arraycopy(kinds, from, kinds, to, count);
+    System.arraycopy(firstChildren, from, firstChildren, to, count);
+    System.arraycopy(nextSiblings, from, nextSiblings, to, count);
+    System.arraycopy(nodeTokens, from, nodeTokens, to, count);
+  }
+
+  // moves the gap to the end, after which the nodes are stored as they
+  // are read
+  private void closeGap() {
+    if (gap == Integer.MAX_VALUE)
+      return;
+    moveGap(size);
+    gap = Integer.MAX_VALUE;
+    gapLength = 0;
+    nodeShift = 0;
+    tokenShift = 0;
+  }
+
+  // makes the gap hold at least the given number of nodes
+  private void growGap(int needed) {
+    int capacity = Math.max(kinds.length * 2, size + needed);
+    int count = size - gap;
+    int from = gap + gapLength;
+    int to = capacity - count;
+    kinds = widen(kinds, capacity, from, to, count);
+    firstChildren = widen(firstChildren, capacity, from, to, count);
+    nextSiblings = widen(nextSiblings, capacity, from, to, count);
+    nodeTokens = widen(nodeTokens, capacity, from, to, count);
+    gapLength = to - gap;
+  }
+
+  // a copy of the given array with the given capacity, with the
+  // entries [from, from + count) moved to the given index
+  private static int[] widen(int[] array, int capacity, int from, int to, int count) {
+    int[] wider = Arrays.copyOf(array, capacity);
+    System.arraycopy(array, from, wider, to, count);
+    return wider;
+  }
+
+  // where the given node is stored
+  private int physical(int node) {
+    return node < gap ? node : node + gapLength;
+  }
+
+  // the form a link from the given node to target is stored in
+  private int stored(int node, int target) {
+    return node < gap ? target : shifted(target, nodeShift);
+  }
+
+  // a link of the given node as stored, as a node index
+  private int linked(int node, int link) {
+    return node < gap ? link : unshifted(link, nodeShift);
+  }
+
+  // the shifted form of an index (or -1) stored after the gap
+  private static int shifted(int index, int shift) {
+    return index < 0 ? NONE : index - shift;
+  }
+
+  // the index (or -1) stored after the gap in the given shifted form
+  private static int unshifted(int stored, int shift) {
+    return stored == NONE ? -1 : stored + shift;
+  }
+
+  private void grow() {
+    int capacity = kinds.length * 2;
+    kinds = Arrays.copyOf(kinds, capacity);
+    firstChildren = Arrays.copyOf(firstChildren, capacity);
+    nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+    nodeTokens = Arrays.copyOf(nodeTokens, capacity);
+  }
+
+
+  /* Read-only view */
+
+  /**
+   * Returns the number of nodes in the tree.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the root node (the PROGRAM, or the expression parsed by
+   * Parser.parseExpression), or -1 if the tree is empty.
+   */
+  public int root() {
+    return root;
+  }
+
+  public int kind(int node) {
+    return kinds[physical(node)];
+  }
+
+  // the first child of a node, or -1 if it has none
+  public int firstChild(int node) {
+    return linked(node, firstChildren[physical(node)]);
+  }
+
+  // the next sibling of a node, or -1 if it is the last child
+  public int nextSibling(int node) {
+    return linked(node, nextSiblings[physical(node)]);
+  }
+
+  // the i-th child of a node, or -1 if it has fewer children
+  public int child(int node, int i) {
+    int child = firstChild(node);
+    for (; i > 0 && child >= 0; i--)
+      child = nextSibling(child);
+    return child;
+  }
+
+  public int childCount(int node) {
+    int count = 0;
+    for (int child = firstChild(node); child >= 0; child = nextSibling(child))
+      count++;
+    return count;
+  }
+
+  // the index of a node's token in tokens(), or -1 if it has none
+  public int token(int node) {
+    if (node < gap)
+      return nodeTokens[node];
+    return unshifted(nodeTokens[node + gapLength], tokenShift);
+  }
+
+  public TokenBuffer tokens() {
+    return tokens;
+  }
+
+  // the type of a node's token
+  public TokenType tokenType(int node) {
+    return tokens.type(token(node));
+  }
+
+  // the symbol id of a node's identifier, or -1 if not interned
+  public int symbol(int node) {
+    return tokens.symbol(token(node));
+  }
+
+  // the value of an INT_VAL node
+  public long intValue(int node) {
+    return tokens.intValue(token(node));
+  }
+
+  // the value of a DOUBLE_VAL node
+  public double doubleValue(int node) {
+    return tokens.doubleValue(token(node));
+  }
+
+  /**
+   * Creates the Token object for the token of the given node (which
+   * must have one).
+   */
+  public Token tokenOf(int node) {
+    return tokens.token(token(node));
+  }
+
+  /**
+   * Returns the typed view of the given expression node (null for an
+   * EMPTY node).
+   */
+  public Expr expr(int node) {
+    return Expr.of(this, node);
+  }
+}
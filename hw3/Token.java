@@ -2,9 +2,18 @@
  * Author: S. Bowers
  * Assign: 2
  *
- * Simple (immutable) container for token information. Token objects
- * are created by the Lexer and returned by Lexer's next_token()
- * function.
+ * Simple container for token information. Token objects are created
+ * by the Lexer and returned by Lexer's next_token() function. Tokens
+ * created by the lexer refer to their text as a slice of the lexer's
+ * source buffer; the lexeme string is only built (once) when lexeme()
+ * is called. Number tokens also carry the value the lexer computed
+ * for them.
+ *
+ * So a token is only a view of its source until its lexeme is built:
+ * if the source changes first (e.g., SourceBuffer.splice, which an
+ * IncrementalLexer edits with, or a change to a memory mapped file),
+ * lexeme() returns the text now at the token's place. Call lexeme()
+ * (or keep()) on a token to be kept past a change of its source.
  */
 
 
@@ -17,14 +26,54 @@ public class Token {
     this.column = column;
   }
 
+  public Token(TokenType type, SourceBuffer source, int start, int end,
+               int symbol, long value, int row, int column) {
+    this.type = type;
+    this.source = source;
+    this.start = start;
+    this.end = end;
+    this.symbol = symbol;
+    this.value = value;
+    this.row = row;
+    this.column = column;
+  }
+
   public TokenType type() {
     return type;
   }
 
   public String lexeme() {
+    if (lexeme == null)
+      lexeme = source.text(start, end);
     return lexeme;
   }
 
+  // builds the lexeme now, so the token no longer depends on its
+  // source, and returns the token
+  public Token keep() {
+    lexeme();
+    return this;
+  }
+
+  // the id of an interned identifier, or -1
+  public int symbol() {
+    return symbol;
+  }
+
+  // the value of an INT_VAL token
+  public long intValue() {
+    if (source == null && type == TokenType.INT_VAL)
+      return Long.parseLong(lexeme);
+    return value;
+  }
+
+  // the value of a DOUBLE_VAL token
+  public double doubleValue() {
+    if (source == null && type == TokenType.DOUBLE_VAL)
+      return Double.parseDouble(lexeme);
+    return Double.longBitsToDouble(value);
+  }
+
   public int row() {
     return row;
   }
@@ -35,11 +84,16 @@ public class Token {
 
   @Override
   public String toString() {
-    return type + " '" + lexeme + "' " + row + ":" + column;
+    return type + " '" + lexeme() + "' " + row + ":" + column;
   }
-    
+
   private TokenType type;       // the type of the token
   private String lexeme;        // the string value of the token
+  private SourceBuffer source;  // buffer holding the token's text
+  private int start;            // offset of the text in the buffer
+  private int end;              // offset just past the text
+  private int symbol = -1;      // symbol id of an interned identifier
+  private long value;           // int value or double bits of a number
   private int row;              // row where token occurred
   private int column;           // column where token occured
 }
@@ -0,0 +1,428 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: TokenBuffer.java
+ *
+ * Compact token storage produced by Lexer.tokenizeAll(). Instead of
+ * one Token object per token, the buffer keeps parallel arrays of
+ * token types (as TokenType ordinals), source offsets, lines, and
+ * columns, which is 13 bytes per token (plus 4 for the symbol id when
+ * identifiers are interned in a SymbolTable, and 8 for the values of
+ * numbers once the source has any). Token objects (with their
+ * lexemes) are only created on request, e.g., for error messages or
+ * for printing the tokens.
+ *
+ * The tokens of a source being edited (see splice) are kept with a gap
+ * at the place of the last edit, as SourceBuffer keeps its bytes. The
+ * tokens after the gap are stored without the change in offsets and
+ * lines of the edits before them, which is kept once for all of them
+ * (startShift and lineShift) instead, so an edit only touches the
+ * tokens between it and the previous edit.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+
+public class TokenBuffer {
+
+  private static final TokenType[] TYPES = TokenType.values();
+
+  private SourceBuffer source;  // the source the tokens were read from
+  private SymbolTable symbolTable; // table identifiers are interned in
+  private byte[] types;         // token type ordinals
+  private int[] starts;         // offset of each token in the source
+  private int[] lines;
+  private int[] columns;
+  private int[] symbols;        // symbol ids (if there is a symbol table)
+  private long[] values;        // number values (once there is a number, of every token)
+  private int size;
+  private int gap = Integer.MAX_VALUE;  // index of the gap (if spliced)
+  private int gapLength;        // free entries in the gap
+  private int startShift;       // added to the offsets after the gap
+  private int lineShift;        // added to the lines after the gap
+
+  /**
+   * Create an empty buffer for tokens of the given source.
+   */
+  public TokenBuffer(SourceBuffer source) {
+    this(source, null);
+  }
+
+  /**
+   * Create an empty buffer for tokens of the given source whose
+   * identifiers are interned in the given table (if not null).
+   */
+  public TokenBuffer(SourceBuffer source, SymbolTable symbolTable) {
+    this(source, symbolTable, 1024);
+  }
+
+  /**
+   * Create an empty buffer for tokens of the given source whose
+   * identifiers are interned in the given table (if not null), with
+   * room for the given number of tokens before it grows.
+   */
+  public TokenBuffer(SourceBuffer source, SymbolTable symbolTable, int capacity) {
+    this.source = source;
+    this.symbolTable = symbolTable;
+    capacity = Math.max(capacity, 16);
+    types = new byte[capacity];
+    starts = new int[capacity];
+    lines = new int[capacity];
+    columns = new int[capacity];
+    if (symbolTable != null)
+      symbols = new int[capacity];
+  }
+
+  /**
+   * Adds a token to the end of the buffer.
+   */
+  public void add(TokenType type, int start, int symbol, long value,
+                  int line, int column) {
+    if (gap != Integer.MAX_VALUE)
+      closeGap();
+    if (size == types.length)
+      grow(size + 1);
+    if (values != null) {
+      values[size] = value;
+    } else if (value != 0) {
+      values = new long[types.length];
+      values[size] = value;
+    }
+    types[size] = (byte)type.ordinal();
+    starts[size] = start;
+    lines[size] = line;
+    columns[size] = column;
+    if (symbols != null)
+      symbols[size] = symbol;
+    size++;
+  }
+
+  /**
+   * Adds the tokens [from, to) of another buffer to the end of this
+   * buffer, adding startOffset to their source offsets and lineOffset
+   * to their lines.
+   */
+  public void append(TokenBuffer other, int from, int to, int startOffset,
+                     int lineOffset) {
+    closeGap();
+    other.closeGap();
+    int count = to - from;
+    if (size + count > types.length)
+      grow(size + count);
+    System.arraycopy(other.types, from, types, size, count);
+    System.arraycopy(other.columns, from, columns, size, count);
+    if (symbols != null && other.symbols != null)
+      System.arraycopy(other.symbols, from, symbols, size, count);
+    else if (symbols != null)
+      Arrays.fill(symbols, size, size + count, -1);
+    if (other.values != null) {
+      if (values == null)
+        values = new long[types.length];
+      System.arraycopy(other.values, from, values, size, count);
+    } else if (values != null) {
+      Arrays.fill(values, size, size + count, 0);  // (stale values of a reused buffer)
+    }
+    for (int i = 0; i < count; i++) {
+      starts[size + i] = other.starts[from + i] + startOffset;
+      lines[size + i] = other.lines[from + i] + lineOffset;
+    }
+    size += count;
+  }
+
+  /**
+   * Returns the number of bytes write takes to store the tokens.
+   */
+  public int byteSize() {
+    return 5 + size * 13 + (values != null ? size * 8 : 0);
+  }
+
+  /**
+   * Writes the tokens (but not their symbol ids) to the given buffer,
+   * in the form read takes.
+   */
+  public void write(ByteBuffer out) {
+    closeGap();
+    out.putInt(size);
+    out.put(types, 0, size);
+    out.asIntBuffer().put(starts, 0, size).put(lines, 0, size).put(columns, 0, size);
+    out.position(out.position() + size * 12);
+    out.put((byte)(values != null ? 1 : 0));
+    if (values != null) {
+      out.asLongBuffer().put(values, 0, size);
+      out.position(out.position() + size * 8);
+    }
+  }
+
+  /**
+   * Reads tokens of the given source that write stored, from the given
+   * buffer. Identifiers are not interned.
+   */
+  public static TokenBuffer read(ByteBuffer in, SourceBuffer source) {
+    int size = in.getInt();
+    TokenBuffer tokens = new TokenBuffer(source, null, size);
+    in.get(tokens.types, 0, size);
+    in.asIntBuffer().get(tokens.starts, 0, size).get(tokens.lines, 0, size)
+      .get(tokens.columns, 0, size);
+    in.position(in.position() + size * 12);
+    if (in.get() != 0) {
+      tokens.values = new long[tokens.types.length];
+      in.asLongBuffer().get(tokens.values, 0, size);
+      in.position(in.position() + size * 8);
+    }
+    tokens.size = size;
+    return tokens;
+  }
+
+  /**
+   * Makes the tokens read their text from the given source, which must
+   * hold the same bytes as the previous one (at least through the last
+   * token), e.g., a snapshot of it (see SourceBuffer.snapshot).
+   */
+  public void setSource(SourceBuffer source) {
+    this.source = source;
+  }
+
+  /**
+   * Removes all of the tokens, keeping the memory they used.
+   */
+  public void clear() {
+    size = 0;
+    gap = Integer.MAX_VALUE;
+    gapLength = 0;
+    startShift = 0;
+    lineShift = 0;
+  }
+
+  /**
+   * Replaces the tokens [from, from + removed) with the tokens
+   * [otherFrom, otherTo) of another buffer (over the same, edited,
+   * source), and adds startDelta to the offsets and lineDelta to the
+   * lines of the tokens after them. Takes time proportional to the
+   * number of tokens replaced and their distance from the previous
+   * splice.
+   */
+  public void splice(int from, int removed, TokenBuffer other, int otherFrom,
+                     int otherTo, int startDelta, int lineDelta) {
+    other.closeGap();
+    if (gap == Integer.MAX_VALUE) {
+      gap = size;
+      gapLength = types.length - size;
+    }
+    moveGap(from);
+    gapLength += removed;
+    size -= removed;
+    int count = otherTo - otherFrom;
+    if (count > gapLength)
+      growGap(count);
+    System.arraycopy(other.types, otherFrom, types, gap, count);
+    System.arraycopy(other.starts, otherFrom, starts, gap, count);
+    System.arraycopy(other.lines, otherFrom, lines, gap, count);
+    System.arraycopy(other.columns, otherFrom, columns, gap, count);
+    if (symbols != null) {
+      if (other.symbols != null)
+        System.arraycopy(other.symbols, otherFrom, symbols, gap, count);
+      else
+        Arrays.fill(symbols, gap, gap + count, -1);
+    }
+    if (other.values != null) {
+      if (values == null)
+        values = new long[types.length];
+      System.arraycopy(other.values, otherFrom, values, gap, count);
+    } else if (values != null) {
+      Arrays.fill(values, gap, gap + count, 0);
+    }
+    gap += count;
+    gapLength -= count;
+    size += count;
+    startShift += startDelta;
+    lineShift += lineDelta;
+  }
+
+  /**
+   * Removes all of the tokens (keeping the memory they used) so the
+   * buffer can hold tokens of the given source, whose identifiers are
+   * interned in the given table (if not null).
+   */
+  public void reset(SourceBuffer source, SymbolTable symbolTable) {
+    this.source = source;
+    this.symbolTable = symbolTable;
+    if (symbolTable != null && symbols == null)
+      symbols = new int[types.length];
+    clear();
+  }
+
+  // moves the gap to the given index, moving the tokens in between
+  // (and their offsets and lines to or from the shifted form)
+  private void moveGap(int index) {
+    if (index < gap) {
+      int count = gap - index;
+      move(index, index + gapLength, count);
+      for (int i = index + gapLength; i < gap + gapLength; i++) {
+        starts[i] -= startShift;
+        lines[i] -= lineShift;
+      }
+    } else if (index > gap) {
+      move(gap + gapLength, gap, index - gap);
+      for (int i = gap; i < index; i++) {
+        starts[i] += startShift;
+        lines[i] += lineShift;
+      }
+    }
+    gap = index;
+  }
+
+  // moves the entries [from, from + count) to the given index
+  private void move(int from, int to, int count) {
+    System.arraycopy(types, from, types, to, count);
+    System.arraycopy(starts, from, starts, to, count);
+    System.arraycopy(lines, from, lines, to, count);
+    System.arraycopy(columns, from, columns, to, count);
+    if (symbols != null)
+      System.arraycopy(symbols, from, symbols, to, count);
+    if (values != null)
+      System.arraycopy(values, from, values, to, count);
+  }
+
+  // moves the gap to the end, after which the tokens are stored as
+  // they are read
+  private void closeGap() {
+    if (gap == Integer.MAX_VALUE)
+      return;
+    moveGap(size);
+    gap = Integer.MAX_VALUE;
+    gapLength = 0;
+    startShift = 0;
+    lineShift = 0;
+  }
+
+  // makes the gap hold at least the given number of tokens
+  private void growGap(int needed) {
+    int capacity = Math.max(types.length * 2, size + needed);
+    int count = size - gap;
+    int from = gap + gapLength;
+    int to = capacity - count;
+    byte[] oldTypes = types;
+    types = Arrays.copyOf(types, capacity);
+    System.arraycopy(oldTypes, from, types, to, count);
+    starts = widen(starts, capacity, from, to, count);
+    lines = widen(lines, capacity, from, to, count);
+    columns = widen(columns, capacity, from, to, count);
+    if (symbols != null)
+      symbols = widen(symbols, capacity, from, to, count);
+    if (values != null) {
+      long[] oldValues = values;
+      values = Arrays.copyOf(values, capacity);
+      System.arraycopy(oldValues, from, values, to, count);
+    }
+    gapLength = to - gap;
+  }
+
+  // a copy of the given array with the given capacity, with the
+  // entries [from, from + count) moved to the given index
+  private static int[] widen(int[] array, int capacity, int from, int to, int count) {
+    int[] wider = Arrays.copyOf(array, capacity);
+    System.arraycopy(array, from, wider, to, count);
+    return wider;
+  }
+
+  // makes room for at least the given number of tokens
+  private void grow(int needed) {
+    int capacity = Math.max(types.length * 2, needed);
+    types = Arrays.copyOf(types, capacity);
+    starts = Arrays.copyOf(starts, capacity);
+    lines = Arrays.copyOf(lines, capacity);
+    columns = Arrays.copyOf(columns, capacity);
+    if (symbols != null)
+      symbols = Arrays.copyOf(symbols, capacity);
+    if (values != null)
+      values = Arrays.copyOf(values, capacity);
+  }
+
+  /**
+   * Compares the types of count tokens of this buffer, starting at
+   * from, with the types of count tokens of another buffer, starting at
+   * otherFrom, and returns the position (counting from 0) of the first
+   * pair that differs, or -1 if none do.
+   */
+  public int mismatch(int from, TokenBuffer other, int otherFrom, int count) {
+    closeGap();
+    other.closeGap();
+    return Arrays.mismatch(types, from, from + count, other.types, otherFrom,
+                           otherFrom + count);
+  }
+
+  /**
+   * Returns the number of tokens in the buffer.
+   */
+  public int size() {
+    return size;
+  }
+
+  public TokenType type(int index) {
+    return TYPES[types[index < gap ? index : index + gapLength]];
+  }
+
+  public int start(int index) {
+    return index < gap ? starts[index] : starts[index + gapLength] + startShift;
+  }
+
+  public int line(int index) {
+    return index < gap ? lines[index] : lines[index + gapLength] + lineShift;
+  }
+
+  public int column(int index) {
+    return columns[index < gap ? index : index + gapLength];
+  }
+
+  // the symbol id of an identifier, or -1 if not interned
+  public int symbol(int index) {
+    return symbols == null ? -1 : symbols[index < gap ? index : index + gapLength];
+  }
+
+  // the value of an INT_VAL token
+  public long intValue(int index) {
+    return values == null ? 0 : values[index < gap ? index : index + gapLength];
+  }
+
+  // the value of a DOUBLE_VAL token
+  public double doubleValue(int index) {
+    return Double.longBitsToDouble(intValue(index));
+  }
+
+  public SourceBuffer source() {
+    return source;
+  }
+
+  public SymbolTable symbolTable() {
+    return symbolTable;
+  }
+
+  /**
+   * Creates the Token object for the token at the given index.
+   */
+  public Token token(int index) {
+    int start = start(index);
+    int end = Lexer.tokenEnd(source, start);
+    return Lexer.token(source, type(index), start, end, symbol(index),
+                       intValue(index), line(index), column(index));
+  }
+
+  /**
+   * Returns a stream of the tokens (not including EOS). The stream is
+   * sized and splits evenly, so it works well in parallel.
+   */
+  public Stream<Token> tokens() {
+    int end = size > 0 && type(size - 1) == TokenType.EOS ? size - 1 : size;
+    return IntStream.range(0, end).mapToObj(this::token);
+  }
+
+  /**
+   * Returns a cursor positioned at the first token.
+   */
+  public TokenCursor cursor() {
+    return new TokenCursor(this);
+  }
+}
@@ -0,0 +1,67 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: TokenCursor.java
+ *
+ * A position in a TokenBuffer. The parser reads tokens through a
+ * cursor when parsing a buffer produced by Lexer.tokenizeAll(). A
+ * cursor over a range of the buffer reads the token just past the
+ * range as EOS.
+ */
+
+
+public class TokenCursor {
+
+  private TokenBuffer tokens;
+  private int index;
+  private int end = -1;         // index read as EOS (-1 for the last)
+
+  /**
+   * Create a cursor at the first token of the given buffer.
+   */
+  public TokenCursor(TokenBuffer tokens) {
+    this.tokens = tokens;
+  }
+
+  /**
+   * Create a cursor over the tokens [from, to) of the given buffer,
+   * where the token at index to is read as EOS.
+   */
+  public TokenCursor(TokenBuffer tokens, int from, int to) {
+    this.tokens = tokens;
+    this.index = from;
+    this.end = to;
+  }
+
+  /**
+   * Returns the type of the current token.
+   */
+  public TokenType type() {
+    return index == end ? TokenType.EOS : tokens.type(index);
+  }
+
+  /**
+   * Creates the Token object for the current token.
+   */
+  public Token token() {
+    if (index == end && tokens.type(index) != TokenType.EOS)
+      return new Token(TokenType.EOS, "", tokens.line(index), tokens.column(index));
+    return tokens.token(index);
+  }
+
+  /**
+   * Returns the index of the current token in the buffer.
+   */
+  public int index() {
+    return index;
+  }
+
+  /**
+   * Moves to the next token. The cursor stays on the last token (EOS)
+   * once it is reached.
+   */
+  public void next() {
+    if (index != end && index < tokens.size() - 1)
+      index++;
+  }
+}
@@ -0,0 +1,193 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: TokenPipeline.java
+ *
+ * Runs a Lexer on its own thread ahead of the Parser reading its
+ * tokens (see Parser(TokenPipeline)), so lexing and parsing use two
+ * cores. The lexer thread fills batches of tokens (TokenBuffers) in a
+ * fixed ring, and the parser takes them in order. Each side only
+ * writes its own counter (batches published, batches released), so
+ * the ring needs no locks, and handing off a whole batch at a time
+ * keeps the cost of the handoff small per token. A side that gets
+ * ahead spins briefly and then parks until the other catches up.
+ *
+ * A lexer error ends the last batch: the parser gets the tokens before
+ * it and then the error, when it reads past them (as with a Lexer).
+ * In diagnostics mode the errors the lexer records are kept with the
+ * number of the token they were found at, and the parser adds them to
+ * its diagnostics in order with its own (see errorsThrough).
+ *
+ * The lexer keeps filling (and growing) its source buffer while the
+ * parser reads the tokens, so each batch is published with a snapshot
+ * of the source holding the bytes read so far (see
+ * SourceBuffer.snapshot), and the batch's tokens read their text from
+ * it rather than from the buffer the lexer is changing.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+
+public class TokenPipeline {
+
+  private Lexer lexer;
+  private SourceBuffer source;         // the lexer's (changed by its thread)
+  private Batch[] ring;
+  private int batchSize;
+  private volatile long published;     // batches the lexer has filled
+  private volatile long released;      // batches the parser is done with
+  private volatile boolean closed;     // set when the parser stops
+  private volatile Throwable crash;    // unexpected failure of the lexer
+  private long taken;                  // batches the parser has taken
+  private Batch current;               // batch the parser is reading
+  private List<MyPLException> recorded; // lexer's diagnostics (if any)
+  private List<MyPLException> errors = new ArrayList<>(); // taken, not yet delivered
+  private List<Integer> errorTokens = new ArrayList<>();  // their token numbers
+
+  // a slot of the ring
+  private static class Batch {
+    TokenBuffer tokens;
+    MyPLException failure;             // lexer error after the tokens
+    List<MyPLException> errors = new ArrayList<>(); // recorded errors
+    List<Integer> errorTokens = new ArrayList<>();  // their token numbers
+  }
+
+  /**
+   * Create a pipeline over the given lexer with batches of 1024 tokens
+   * and a ring of 8 batches.
+   */
+  public TokenPipeline(Lexer lexer) {
+    this(lexer, 1024, 8);
+  }
+
+  /**
+   * Create a pipeline over the given lexer with the given number of
+   * tokens per batch and batches in the ring.
+   */
+  public TokenPipeline(Lexer lexer, int batchSize, int batches) {
+    this.lexer = lexer;
+    this.batchSize = batchSize;
+    ring = new Batch[batches];
+    for (int i = 0; i < batches; i++) {
+      ring[i] = new Batch();
+      ring[i].tokens = lexer.tokenBuffer();
+    }
+    source = ring[0].tokens.source();
+  }
+
+  /**
+   * Has the lexer record its errors instead of throwing them (so they
+   * can be delivered by errorsThrough). Must be called before start.
+   */
+  public void recordErrors() {
+    recorded = new ArrayList<>();
+    lexer.setDiagnostics(recorded);
+  }
+
+  /**
+   * Starts the lexer thread.
+   */
+  public void start() {
+    Thread thread = new Thread(this::produce, "lexer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Returns the next batch of tokens, releasing the previous one (whose
+   * tokens must no longer be used). Its source is a snapshot that
+   * holds the bytes of its tokens and of the batches before it. Throws
+   * the lexer's error once the tokens before it have all been taken.
+   */
+  public TokenBuffer take() throws MyPLException {
+    if (current != null) {
+      if (current.failure != null)
+        throw current.failure;
+      released = taken;
+    }
+    for (int spins = 0; published == taken; spins++) {
+      if (crash != null)
+        throw new IllegalStateException("lexer thread failed", crash);
+      pause(spins);
+    }
+    current = ring[(int)(taken++ % ring.length)];
+    errors.addAll(current.errors);
+    errorTokens.addAll(current.errorTokens);
+    if (current.tokens.size() == 0)
+      throw current.failure;
+    return current.tokens;
+  }
+
+  /**
+   * Adds the recorded lexer errors found at or before the token with
+   * the given number (counting from 0) to the given list, in order.
+   */
+  public void errorsThrough(long token, List<MyPLException> into) {
+    int count = 0;
+    while (count < errors.size() && errorTokens.get(count) <= token)
+      into.add(errors.get(count++));
+    errors.subList(0, count).clear();
+    errorTokens.subList(0, count).clear();
+  }
+
+  /**
+   * Stops the lexer thread (if it is still running).
+   */
+  public void close() {
+    closed = true;
+  }
+
+
+  // the lexer thread: fills the batches in order until EOS, a lexer
+  // error, or the parser closes the pipeline
+  private void produce() {
+    try {
+      int token = 0;
+      TokenType type = null;
+      for (long sequence = 0; type != TokenType.EOS && !closed; sequence++) {
+        for (int spins = 0; sequence - released == ring.length; spins++) {
+          if (closed)
+            return;
+          pause(spins);
+        }
+        Batch batch = ring[(int)(sequence % ring.length)];
+        batch.tokens.clear();
+        batch.errors.clear();
+        batch.errorTokens.clear();
+        batch.failure = null;
+        try {
+          while (batch.tokens.size() < batchSize && type != TokenType.EOS) {
+            type = lexer.nextTokenInto(batch.tokens);
+            if (recorded != null && !recorded.isEmpty()) {
+              for (MyPLException e : recorded) {
+                batch.errors.add(e);
+                batch.errorTokens.add(token);
+              }
+              recorded.clear();
+            }
+            token++;
+          }
+        } catch (MyPLException e) {
+          batch.failure = e;
+          type = TokenType.EOS;
+        }
+        batch.tokens.setSource(source.snapshot());
+        published = sequence + 1;
+      }
+    } catch (RuntimeException | Error e) {
+      crash = e;
+    }
+  }
+
+  // waits for the other thread, spinning at first and then parking
+  private static void pause(int spins) {
+    if (spins < 100)
+      Thread.onSpinWait();
+    else if (spins < 200)
+      Thread.yield();
+    else
+      LockSupport.parkNanos(20_000);
+  }
+}
@@ -0,0 +1,70 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: TokenSpliterator.java
+ *
+ * Spliterator over the tokens read by a Lexer, in order, up to (but
+ * not including) the EOS token. Lexer errors are thrown as an
+ * UncheckedMyPLException. Splitting (for parallel streams) hands off
+ * batches of tokens that were already read; to split the lexing work
+ * itself, use ParallelLexer and stream the resulting TokenBuffer.
+ */
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+
+public class TokenSpliterator extends Spliterators.AbstractSpliterator<Token> {
+
+  private Lexer lexer;
+  private boolean done;         // true once EOS has been read
+
+  /**
+   * Create a spliterator over the remaining tokens of the given lexer.
+   */
+  public TokenSpliterator(Lexer lexer) {
+    super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+    this.lexer = lexer;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super Token> action) {
+    if (done)
+      return false;
+    Token token = next();
+    if (token == null)
+      return false;
+    action.accept(token);
+    return true;
+  }
+
+  @Override
+  public void forEachRemaining(Consumer<? super Token> action) {
+    if (done)
+      return;
+    try {
+      for (Token t = lexer.nextToken(); t.type() != TokenType.EOS; t = lexer.nextToken())
+        action.accept(t);
+    } catch (MyPLException e) {
+      throw new UncheckedMyPLException(e);
+    } finally {
+      done = true;
+    }
+  }
+
+
+  // the next token, or null at EOS
+  private Token next() {
+    try {
+      Token token = lexer.nextToken();
+      if (token.type() != TokenType.EOS)
+        return token;
+    } catch (MyPLException e) {
+      done = true;
+      throw new UncheckedMyPLException(e);
+    }
+    done = true;
+    return null;
+  }
+}
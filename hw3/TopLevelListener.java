@@ -0,0 +1,24 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: TopLevelListener.java
+ *
+ * Is told where each top-level statement of a parse over a token
+ * buffer starts (see Parser.setTopLevelListener), and can stop the
+ * parse there. At those points the parser is between top-level
+ * statements, so the rest of the parse only depends on the tokens
+ * after them (IncrementalParser uses this to find the units of a
+ * program, and to stop reparsing where an edit's effect ends).
+ */
+
+
+public interface TopLevelListener {
+
+  /**
+   * Called before each top-level statement with the index of its first
+   * token and the index its first node gets in the tree being built
+   * (or -1 if there is none). Returning true stops the parse there, as
+   * if the tokens ended before the statement.
+   */
+  boolean atStatement(int token, int node);
+}
@@ -0,0 +1,29 @@
+/**
+ * Author: Carlos Andres Vazquez Baur
+ * Homework: #3
+ * File: UncheckedMyPLException.java
+ *
+ * Wraps a MyPLException so it can be thrown where checked exceptions
+ * are not allowed, e.g., out of the iterators and streams of tokens
+ * created by the Lexer. The original exception is the cause.
+ */
+
+
+public class UncheckedMyPLException extends RuntimeException {
+
+  private static final long serialVersionUID = 1L;
+
+  public UncheckedMyPLException(MyPLException cause) {
+    super(cause);
+  }
+
+  @Override
+  public MyPLException getCause() {
+    return (MyPLException) super.getCause();
+  }
+
+  @Override
+  public String toString() {
+    return getCause().toString();
+  }
+}